@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the UpdatePathBenchmarks with the JMH gc profiler and checks what
+ * does not depend on the machine:
+ *  - the @AllocationFree benchmarks must allocate nothing per operation
+ *  - each codec* benchmark must not be slower than its jdk* counterpart,
+ *    measured in the same run
+ * Absolute times are only printed. Exit code 1 on failures.
+ *
+ * Usage: BenchmarkCheck [regexp of the benchmarks to run]
+ */
+public class BenchmarkCheck {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    //B/op: JMH reports a few hundredths on code that doesn't allocate
+    private static final double MAX_ALLOCATION = 0.5;
+
+    //codec time / jdk time: a margin for the error of two separate measurements
+    private static final double MAX_RELATIVE_TIME = 1.1;
+
+    public static void main(String[] args) throws RunnerException {
+        String filter = args.length > 0 ? args[0] : "";
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(UpdatePathBenchmarks.class.getName() + "\\..*" + filter)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        Map<String,Double> times = new TreeMap<String,Double>();
+        Map<String,Double> allocations = new TreeMap<String,Double>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+            times.put(name, result.getPrimaryResult().getScore());
+            Result allocation = result.getSecondaryResults().get(ALLOCATION);
+            if (allocation != null) {
+                allocations.put(name, allocation.getScore());
+            }
+        }
+
+        List<String> failures = new ArrayList<String>();
+        for (Map.Entry<String,Double> entry : times.entrySet()) {
+            String name = entry.getKey();
+            Double allocation = allocations.get(name);
+            System.out.println(String.format("%-24s %10.1f ns/op %8.1f B/op", name, entry.getValue(), allocation == null ? Double.NaN : allocation));
+
+            if (getBenchmark(name).isAnnotationPresent(UpdatePathBenchmarks.AllocationFree.class)) {
+                if (allocation == null) {
+                    failures.add(name + ": no allocation figure, is the gc profiler supported?");
+                } else if (allocation > MAX_ALLOCATION) {
+                    failures.add(name + ": " + allocation + " B/op, must not allocate");
+                }
+            }
+
+            if (name.startsWith("codec")) {
+                Double jdk = times.get("jdk" + name.substring("codec".length()));
+                if (jdk != null && entry.getValue() > jdk * MAX_RELATIVE_TIME) {
+                    failures.add(name + ": " + entry.getValue() + " ns/op, slower than the JDK (" + jdk + " ns/op)");
+                }
+            }
+        }
+
+        for (String failure : failures) {
+            System.out.println("FAILED " + failure);
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private static Method getBenchmark(String name) {
+        for (Method method : UpdatePathBenchmarks.class.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unknown benchmark " + name);
+    }
+
+}
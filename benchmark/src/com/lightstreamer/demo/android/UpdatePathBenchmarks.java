@@ -0,0 +1,333 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.File;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.lightstreamer.ls_client.ConnectionInfo;
+import com.lightstreamer.ls_client.ConnectionListener;
+import com.lightstreamer.ls_client.ExtendedTableInfo;
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.PushConnException;
+import com.lightstreamer.ls_client.PushServerException;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+import com.lightstreamer.ls_client.UpdateInfo;
+
+/*
+ * JMH benchmarks of the update hot path, one update per operation, replaying
+ * a feed recorded from the FakePushTransport through the production entry
+ * points:
+ *  - list: MainSubscription.onUpdate (row models, no list on screen)
+ *  - details: Stock.update, with its drain run in place of the UI thread,
+ *    and the chart series
+ *  - triggers: MpnTriggers, as used by the details and the mpn listener
+ *  - latency: recording in a LatencyHistogram (see UpdateLatency)
+ *  - codec: each QuoteCodec operation next to the JDK code it replaces
+ * The views (TextViews, the plot) are left out: only classes that run on a
+ * plain JVM are loaded. See BenchmarkCheck for the checks on the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UpdatePathBenchmarks {
+
+    /*
+     * a benchmark that must not allocate at all, see BenchmarkCheck
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @interface AllocationFree {
+    }
+
+    private static final int LIST_ITEMS = 30;
+    private static final int FEED_SIZE = 4096; // a power of 2, see next
+    private static final double FEED_RATE = 50000;
+    private static final long SEED = 42;
+
+    private UpdateInfo[] listFeed;
+    private String[] listNames;
+    private UpdateInfo[] detailsFeed;
+    private int next = 0;
+
+    private MainSubscription mainSubscription;
+
+    private final QuoteUpdate detailsUpdate = new QuoteUpdate(QuoteSchema.DETAILS);
+    private Stock stock;
+    //the drain runs right away: there's no UI thread
+    private final Executor inPlace = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final PriceSeries series = new PriceSeries(40);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private String[] prices;
+    private String[] quantities;
+    private String[] times;
+    private double[] parsed;
+    private final char[] buffer = new char[QuoteCodec.MAX_LENGTH];
+    //the former per-row formatter of StockForList
+    private final DecimalFormat format = new DecimalFormat("#.00");
+
+    @Setup
+    public void setUp() throws Exception {
+        Logger.setLogger(new Logger() {
+            @Override
+            public void println(int priority, String tag, String msg) {
+            }
+
+            @Override
+            public boolean isEnabled(String tag, int priority) {
+                return false;
+            }
+        });
+
+        listNames = new String[FEED_SIZE];
+        listFeed = recordFeed(FakePushTransport.items(LIST_ITEMS), QuoteSchema.LIST.getFieldNames(), listNames);
+        detailsFeed = recordFeed(new String[] {"item3"}, QuoteSchema.DETAILS.getFieldNames(), new String[FEED_SIZE]);
+
+        SnapshotStore snapshots = new SnapshotStore(new File("snapshot.unused"));
+        StockCatalog catalog = new StockCatalog(Arrays.asList(FakePushTransport.items(LIST_ITEMS)), snapshots);
+        mainSubscription = new MainSubscription(catalog, 0);
+
+        stock = new Stock("item3", snapshots);
+        stock.setChart(new Chart());
+
+        prices = values(detailsFeed, "last_price");
+        quantities = values(detailsFeed, "bid_quantity");
+        times = values(detailsFeed, "time");
+        parsed = new double[FEED_SIZE];
+        for (int i = 0; i < FEED_SIZE; i++) {
+            parsed[i] = Double.parseDouble(prices[i]);
+        }
+    }
+
+    private int next() {
+        return next++ & (FEED_SIZE - 1);
+    }
+
+    @Benchmark
+    @AllocationFree
+    public void listOnUpdate() {
+        int i = this.next();
+        mainSubscription.onUpdate(1, listNames[i], listFeed[i]);
+    }
+
+    @Benchmark
+    @AllocationFree
+    public void detailsUpdate() {
+        //as the StockListener of the DetailsFragment
+        long receivedAt = System.nanoTime();
+        synchronized(detailsUpdate) {
+            stock.update(detailsUpdate.wrap(detailsFeed[this.next()]), inPlace, receivedAt);
+        }
+    }
+
+    @Benchmark
+    @AllocationFree
+    public int chartSeriesAdd() {
+        UpdateInfo update = detailsFeed[this.next()];
+        series.add(update.getNewValue("time"), update.getNewValue("last_price"));
+        return series.size();
+    }
+
+    @Benchmark
+    public double mpnTriggerRoundTrip() {
+        int i = this.next();
+        double current = parsed[i];
+        return MpnTriggers.parse(MpnTriggers.toString(current + (i & 7) - 4, current));
+    }
+
+    @Benchmark
+    @AllocationFree
+    public long latencyRecord() {
+        //from 1us to about 1s
+        histogram.recordNanos(1000L << (next++ % 20));
+        return histogram.getCount();
+    }
+
+    @Benchmark
+    @AllocationFree
+    public double codecParsePrice() {
+        return QuoteCodec.parseDecimal(prices[this.next()]);
+    }
+
+    @Benchmark
+    public double jdkParsePrice() {
+        return Double.parseDouble(prices[this.next()]);
+    }
+
+    @Benchmark
+    @AllocationFree
+    public long codecParseFixedPrice() {
+        return QuoteCodec.parseFixed(prices[this.next()], 2);
+    }
+
+    @Benchmark
+    public long jdkParseFixedPrice() {
+        return new BigDecimal(prices[this.next()]).movePointRight(2).longValueExact();
+    }
+
+    @Benchmark
+    @AllocationFree
+    public long codecParseQuantity() {
+        return QuoteCodec.parseQuantity(quantities[this.next()]);
+    }
+
+    @Benchmark
+    public long jdkParseQuantity() {
+        return Long.parseLong(quantities[this.next()]);
+    }
+
+    @Benchmark
+    @AllocationFree
+    public int codecParseTime() {
+        return QuoteCodec.parseTime(times[this.next()]);
+    }
+
+    @Benchmark
+    public int jdkParseTime() {
+        //the former Chart.Series.add
+        String[] hms = times[this.next()].split(":");
+        return Integer.parseInt(hms[0])*60*60 + Integer.parseInt(hms[1])*60 + Integer.parseInt(hms[2]);
+    }
+
+    @Benchmark
+    @AllocationFree
+    public void codecFormatPrice(Blackhole blackhole) {
+        int length = QuoteCodec.formatPrice(parsed[this.next()], buffer);
+        blackhole.consume(length);
+        blackhole.consume(buffer);
+    }
+
+    @Benchmark
+    public String jdkFormatPrice() {
+        return format.format(parsed[this.next()]);
+    }
+
+    @Benchmark
+    @AllocationFree
+    public int codecComparePrice() {
+        int i = this.next();
+        return QuoteCodec.compareDecimal(prices[i], prices[(i + 1) & (FEED_SIZE - 1)]);
+    }
+
+    @Benchmark
+    public boolean jdkComparePrice() {
+        //the former Stock.updateView
+        int i = this.next();
+        return Double.parseDouble(prices[i]) - Double.parseDouble(prices[(i + 1) & (FEED_SIZE - 1)]) < 0;
+    }
+
+    private static String[] values(UpdateInfo[] feed, String field) {
+        String[] values = new String[feed.length];
+        for (int i = 0; i < feed.length; i++) {
+            values[i] = feed[i].getNewValue(field);
+        }
+        return values;
+    }
+
+    /*
+     * the first FEED_SIZE updates (snapshot included) of a subscription to the
+     * fake server; names gets the item of each update
+     */
+    private static UpdateInfo[] recordFeed(String[] items, String[] fields, final String[] names) throws Exception {
+        final UpdateInfo[] feed = new UpdateInfo[FEED_SIZE];
+        final CountDownLatch full = new CountDownLatch(1);
+
+        FakePushTransport transport = new FakePushTransport(FEED_RATE, SEED);
+        transport.openConnection(new ConnectionInfo(), new IdleConnectionListener());
+
+        ExtendedTableInfo info = new ExtendedTableInfo(items, "MERGE", fields, true);
+        info.setDataAdapter("QUOTE_ADAPTER");
+        SubscribedTableKey key = transport.subscribeTable(info, new HandyTableListener() {
+            int count = 0;
+            public void onUpdate(int itemPos, String itemName, UpdateInfo newData) {
+                if (count < FEED_SIZE) {
+                    names[count] = itemName;
+                    feed[count++] = newData;
+                    if (count == FEED_SIZE) {
+                        full.countDown();
+                    }
+                }
+            }
+            public void onRawUpdatesLost(int itemPos, String itemName, int lostUpdates) {
+            }
+            public void onSnapshotEnd(int itemPos, String itemName) {
+            }
+            public void onUnsubscr(int itemPos, String itemName) {
+            }
+            public void onUnsubscrAll() {
+            }
+        }, false);
+
+        if (!full.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Feed not complete");
+        }
+        transport.unsubscribeTable(key);
+        transport.closeConnection();
+        return feed;
+    }
+
+    private static class IdleConnectionListener implements ConnectionListener {
+        public void onConnectionEstablished() {
+        }
+        public void onSessionStarted(boolean isPolling) {
+        }
+        public void onNewBytes(long bytes) {
+        }
+        public void onDataError(PushServerException e) {
+        }
+        public void onActivityWarning(boolean warningOn) {
+        }
+        public void onClose() {
+        }
+        public void onEnd(int cause) {
+        }
+        public void onFailure(PushServerException e) {
+        }
+        public void onFailure(PushConnException e) {
+        }
+    }
+
+}
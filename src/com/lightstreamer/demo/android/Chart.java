@@ -19,7 +19,7 @@ import java.text.DecimalFormat;
 import java.text.FieldPosition;
 import java.text.Format;
 import java.text.ParsePosition;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -34,7 +34,6 @@ import com.androidplot.xy.LineAndPointFormatter;
 import com.androidplot.xy.XYPlot;
 import com.androidplot.xy.XYSeries;
 import com.androidplot.xy.XYStepMode;
-import com.lightstreamer.ls_client.UpdateInfo;
 
 public class Chart {
     
@@ -49,9 +48,6 @@ public class Chart {
     
     DecimalFormat df = new DecimalFormat("00");
     
-    double maxY = 0; 
-    double minY = 0;
-    
     private final static int MAX_SERIES_SIZE = 40;
     
     public Chart() {
@@ -64,10 +60,10 @@ public class Chart {
                 FixedYSeries fixedLine = entry.getValue();
                 if (fixedLine.size() > 0) {
                     double fixed = fixedLine.getFixed(); 
-                    if (fixed > maxY) {
-                        maxY = fixed+0.1;
-                    } else if (fixedLine.getFixed() < minY) {
-                        minY = fixed-0.1;
+                    if (fixed > series.prices.maxY) {
+                        series.prices.maxY = fixed+0.1;
+                    } else if (fixedLine.getFixed() < series.prices.minY) {
+                        series.prices.minY = fixed-0.1;
                     }
                 }
             }
@@ -76,8 +72,8 @@ public class Chart {
     
     private void adjustYBoundaries() {
         //default positioning puts the origin on the bottom, we want it on the center
-        double min = minY;
-        double max = maxY;
+        double min = series.prices.minY;
+        double max = series.prices.maxY;
         
         adjustToFixedLine(fixedLines);
         adjustToFixedLine(tempFixedLines);
@@ -145,6 +141,20 @@ public class Chart {
         this.redraw();
     }
     
+    public void setTriggerLines(Collection<Double> activated, Collection<Double> deactivated) {
+        synchronized(this.fixedLines) {
+            for (Double trigger : deactivated) {
+                removeFixedLine(tempFixedLines,trigger);
+                removeFixedLine(fixedLines,trigger);
+            }
+            for (Double trigger : activated) {
+                removeFixedLine(tempFixedLines,trigger);
+                addFixedLine(fixedLines,trigger,fixedRedLineFormatter);
+            }
+        }
+        this.redraw();
+    }
+    
     private void addFixedLine(Map<Double, FixedYSeries> fixedLines,
             double trigger, LineAndPointFormatter formatter) {
         
@@ -195,9 +205,9 @@ public class Chart {
         this.redraw();
     }
     
-    public void addPoint(UpdateInfo newData) {
-        String lastPrice = newData.getNewValue("last_price");
-        String time = newData.getNewValue("time");
+    public void addPoint(QuoteUpdate update) {
+        String lastPrice = update.get(QuoteSchema.LAST_PRICE);
+        String time = update.get(QuoteSchema.TIME);
         this.addPoint(time,lastPrice);
     }
     
@@ -218,8 +228,6 @@ public class Chart {
         }
         
         
-        maxY = 0;
-        minY = 0;
         this.redraw();
     }
     
@@ -230,35 +238,6 @@ public class Chart {
         }
     }
     
-    private void onYOverflow(double last) {
-        //TODO currently never shrinks
-        int shift = 1;
-        if (last > maxY) {
-            double newMax = maxY + shift;
-          if (last > newMax) {
-            newMax = last;
-          }
-
-          this.maxY = newMax;
-
-        } else if (last < minY) {
-            double newMin = minY - shift;
-          if (last < newMin) {
-            newMin = last;
-          }
-          
-          this.minY = newMin;
-        }
-    }
-    
-    private void onFirstPoint(double newPrice) {
-        minY = newPrice-1;
-        if (minY < 0) {
-            minY = 0;
-        }
-        maxY = newPrice+1;
-    }
-    
     private class FixedYSeries implements XYSeries {
         
         private double fixedY = 0;
@@ -306,9 +285,7 @@ public class Chart {
     
     private class Series implements XYSeries {
 
-        
-        ArrayList<Number> prices = new ArrayList<Number>();
-        ArrayList<Number> times = new ArrayList<Number>();
+        final PriceSeries prices = new PriceSeries(MAX_SERIES_SIZE);
      
         @Override
         public String getTitle() {
@@ -316,42 +293,21 @@ public class Chart {
         }
 
         public void add(String time, String lastPrice) {
-            if (prices.size() >= MAX_SERIES_SIZE) {
-                prices.remove(0);
-                times.remove(0);
-            }
-            
-            double newPrice = Double.parseDouble(lastPrice);
-            
-            if (prices.size() == 0) {
-                onFirstPoint(newPrice);
-            }
-            
-            if (newPrice < minY || newPrice > maxY) {
-                onYOverflow(newPrice);
-            }
-            
-            prices.add(newPrice);
-            
-            String[] pieces = time.split(":");
-            int intTime = Integer.parseInt(pieces[0])*60*60 + Integer.parseInt(pieces[1])*60 + Integer.parseInt(pieces[2]);
-            times.add(intTime);
-            
+            prices.add(time, lastPrice);
         }
 
         public void reset() {
-            prices.clear();
-            times.clear();
+            prices.reset();
         }
 
         @Override
         public Number getX(int index) {
-            return times.get(index);
+            return prices.getX(index);
         }
 
         @Override
         public Number getY(int index) {
-            return prices.get(index);
+            return prices.getY(index);
         }
 
         @Override
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.UpdateInfo;
+
+/*
+ * Collects figures about the connection as seen through the ClientListener
+ * callbacks and the subscription listeners. Everything is lock-free: the
+ * callbacks come from the client threads, queries can come from anywhere.
+ */
+public class ConnectionMetrics {
+
+    private static final int WINDOW_SECONDS = 10;
+    private static final int STATUSES = 6; //see LightstreamerClient status constants
+    private static final int LIFETIMES_HISTORY = 16;
+
+    private final RollingCounter bytes = new RollingCounter(WINDOW_SECONDS);
+    private final AtomicLong totalBytes = new AtomicLong(0);
+
+    private final ConcurrentHashMap<Subscription,RollingCounter> updates = new ConcurrentHashMap<Subscription,RollingCounter>();
+
+    private final AtomicLong connectionAttempts = new AtomicLong(0);
+    private final AtomicLong sessions = new AtomicLong(0);
+    private final AtomicLong connectingSince = new AtomicLong(0);
+    private final AtomicLong lastSetupTime = new AtomicLong(-1);
+    private final AtomicLong avoidedReconnections = new AtomicLong(0);
+
+    private final AtomicLongArray timeInStatus = new AtomicLongArray(STATUSES);
+    private final AtomicReference<StatusSpan> currentStatus = new AtomicReference<StatusSpan>(new StatusSpan(LightstreamerClient.DISCONNECTED,System.nanoTime()));
+
+    private final ConcurrentHashMap<Integer,Long> openSessions = new ConcurrentHashMap<Integer,Long>();
+    private final AtomicReferenceArray<SessionLifetime> lifetimes = new AtomicReferenceArray<SessionLifetime>(LIFETIMES_HISTORY);
+    private final AtomicLong closedSessions = new AtomicLong(0);
+
+//Feeding (package-private, called by the LightstreamerClient)
+
+    void onConnecting(int connId) {
+        connectionAttempts.incrementAndGet();
+        connectingSince.set(System.nanoTime());
+    }
+
+    void onSessionStarted(int connId) {
+        long now = System.nanoTime();
+        if (openSessions.putIfAbsent(connId,now) != null) {
+            //e.g. switched from streaming to polling, still the same session
+            return;
+        }
+        sessions.incrementAndGet();
+        long since = connectingSince.getAndSet(0);
+        if (since != 0) {
+            lastSetupTime.set(TimeUnit.NANOSECONDS.toMillis(now - since));
+        }
+    }
+
+    void onSessionClosed(int connId) {
+        Long start = openSessions.remove(connId);
+        if (start == null) {
+            return;
+        }
+        long lifetime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int slot = (int) (closedSessions.getAndIncrement() % LIFETIMES_HISTORY);
+        lifetimes.set(slot,new SessionLifetime(connId,lifetime));
+    }
+
+    void onAvoidedReconnection() {
+        avoidedReconnections.incrementAndGet();
+    }
+
+    void onNewBytes(long num) {
+        totalBytes.addAndGet(num);
+        bytes.add(num);
+    }
+
+    void onStatus(int status) {
+        if (status < 0 || status >= STATUSES) {
+            return;
+        }
+        StatusSpan next = new StatusSpan(status,System.nanoTime());
+        StatusSpan previous = currentStatus.getAndSet(next);
+        timeInStatus.addAndGet(previous.status, next.since - previous.since);
+    }
+
+    /*
+     * wraps the listener of the subscription so that its updates are counted
+     */
+    HandyTableListener meter(Subscription sub) {
+        RollingCounter counter = new RollingCounter(WINDOW_SECONDS);
+        RollingCounter existing = updates.putIfAbsent(sub,counter);
+        return new MeteredTableListener(sub.getTableListener(), existing != null ? existing : counter);
+    }
+
+    void forget(Subscription sub) {
+        updates.remove(sub);
+    }
+
+//Queries
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /*
+     * average over the last complete seconds of the window
+     */
+    public double getBytesPerSecond() {
+        return bytes.rate();
+    }
+
+    /*
+     * -1 if the subscription is not known
+     */
+    public double getUpdatesPerSecond(Subscription sub) {
+        RollingCounter counter = updates.get(sub);
+        return counter == null ? -1 : counter.rate();
+    }
+
+    public long getConnectionAttempts() {
+        return connectionAttempts.get();
+    }
+
+    public long getSessions() {
+        return sessions.get();
+    }
+
+    public long getReconnections() {
+        return Math.max(0, sessions.get() - 1);
+    }
+
+    /*
+     * restarts that found the session still lingering
+     */
+    public long getAvoidedReconnections() {
+        return avoidedReconnections.get();
+    }
+
+    /*
+     * ms between the last connection attempt and the start of its session, -1 if none
+     */
+    public long getLastSessionSetupTime() {
+        return lastSetupTime.get();
+    }
+
+    /*
+     * ms spent in the given status (including the current span)
+     */
+    public long getTimeInStatus(int status) {
+        if (status < 0 || status >= STATUSES) {
+            return 0;
+        }
+        long time = timeInStatus.get(status);
+        StatusSpan current = currentStatus.get();
+        if (current.status == status) {
+            time += System.nanoTime() - current.since;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(time);
+    }
+
+    /*
+     * lifetimes of the last closed sessions, most recent first
+     */
+    public List<SessionLifetime> getSessionLifetimes() {
+        long closed = closedSessions.get();
+        int count = (int) Math.min(closed,LIFETIMES_HISTORY);
+        List<SessionLifetime> result = new ArrayList<SessionLifetime>(count);
+        for (int i = 1; i <= count; i++) {
+            SessionLifetime lifetime = lifetimes.get((int) ((closed - i) % LIFETIMES_HISTORY));
+            if (lifetime != null) {
+                result.add(lifetime);
+            }
+        }
+        return result;
+    }
+
+    public static class SessionLifetime {
+        public final int connId;
+        public final long millis;
+
+        SessionLifetime(int connId, long millis) {
+            this.connId = connId;
+            this.millis = millis;
+        }
+    }
+
+    private static class StatusSpan {
+        final int status;
+        final long since;
+
+        StatusSpan(int status, long since) {
+            this.status = status;
+            this.since = since;
+        }
+    }
+
+    /*
+     * one bucket per second; a bucket is reset by the first add of a new second
+     * (an add racing with the reset may be lost, good enough for statistics)
+     */
+    static class RollingCounter {
+
+        private final int size;
+        private final AtomicLongArray counts;
+        private final AtomicLongArray seconds;
+
+        RollingCounter(int size) {
+            this.size = size;
+            this.counts = new AtomicLongArray(size);
+            this.seconds = new AtomicLongArray(size);
+        }
+
+        void add(long n) {
+            long now = now();
+            int i = (int) (now % size);
+            long second = seconds.get(i);
+            if (second != now && seconds.compareAndSet(i,second,now)) {
+                counts.set(i,0);
+            }
+            counts.addAndGet(i,n);
+        }
+
+        double rate() {
+            long now = now();
+            long sum = 0;
+            for (int i = 0; i < size; i++) {
+                long second = seconds.get(i);
+                if (second < now && second > now - size) {
+                    sum += counts.get(i);
+                }
+            }
+            return sum / (double) (size - 1);
+        }
+
+        private static long now() {
+            return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        }
+    }
+
+    private static class MeteredTableListener implements HandyTableListener {
+
+        private final HandyTableListener delegate;
+        private final RollingCounter counter;
+
+        MeteredTableListener(HandyTableListener delegate, RollingCounter counter) {
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        public void onUpdate(int itemPos, String itemName, UpdateInfo newData) {
+            counter.add(1);
+            delegate.onUpdate(itemPos, itemName, newData);
+        }
+
+        @Override
+        public void onRawUpdatesLost(int itemPos, String itemName, int lostUpdates) {
+            delegate.onRawUpdatesLost(itemPos, itemName, lostUpdates);
+        }
+
+        @Override
+        public void onSnapshotEnd(int itemPos, String itemName) {
+            delegate.onSnapshotEnd(itemPos, itemName);
+        }
+
+        @Override
+        public void onUnsubscr(int itemPos, String itemName) {
+            delegate.onUnsubscr(itemPos, itemName);
+        }
+
+        @Override
+        public void onUnsubscrAll() {
+            delegate.onUnsubscrAll();
+        }
+    }
+
+}
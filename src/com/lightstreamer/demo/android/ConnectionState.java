@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.lightstreamer.demo.android.LightstreamerClient.CONNECTING;
+import static com.lightstreamer.demo.android.LightstreamerClient.DISCONNECTED;
+import static com.lightstreamer.demo.android.LightstreamerClient.POLLING;
+import static com.lightstreamer.demo.android.LightstreamerClient.STALLED;
+import static com.lightstreamer.demo.android.LightstreamerClient.STREAMING;
+import static com.lightstreamer.demo.android.LightstreamerClient.WAITING;
+
+/*
+ * Connection id and status packed in a single atomic word, so that the check
+ * on the id and the status change can't be separated by a new connection.
+ * Repeated statuses and transitions that make no sense are refused.
+ */
+class ConnectionState {
+
+    private static final int STATUSES = 6;
+
+    //VALID[from][to]
+    private static final boolean[][] VALID = new boolean[STATUSES][STATUSES];
+    static {
+        allow(CONNECTING, STREAMING, POLLING, WAITING, DISCONNECTED);
+        allow(STREAMING, POLLING, STALLED, DISCONNECTED);
+        allow(POLLING, STREAMING, STALLED, DISCONNECTED);
+        allow(STALLED, STREAMING, POLLING, DISCONNECTED);
+        allow(WAITING, DISCONNECTED);
+        //a lost session waits for the next attempt, otherwise DISCONNECTED only leaves through a new connection
+        allow(DISCONNECTED, WAITING);
+    }
+
+    private static void allow(int from, int... to) {
+        for (int status : to) {
+            VALID[from][status] = true;
+        }
+    }
+
+    private final AtomicLong state = new AtomicLong(pack(0,DISCONNECTED));
+
+    public int getConnId() {
+        return connId(state.get());
+    }
+
+    public int getStatus() {
+        return status(state.get());
+    }
+
+    /*
+     * moves to CONNECTING with a brand new connection id, which is returned
+     */
+    public int newConnection() {
+        while (true) {
+            long current = state.get();
+            int connId = connId(current) + 1;
+            if (state.compareAndSet(current, pack(connId,CONNECTING))) {
+                return connId;
+            }
+        }
+    }
+
+    /*
+     * returns true only if the status actually changed: events from an old
+     * connection, repetitions and invalid transitions return false
+     */
+    public boolean moveTo(int connId, int status) {
+        if (status < 0 || status >= STATUSES) {
+            return false;
+        }
+        while (true) {
+            long current = state.get();
+            if (connId(current) != connId || !VALID[status(current)][status]) {
+                return false;
+            }
+            if (state.compareAndSet(current, pack(connId,status))) {
+                return true;
+            }
+        }
+    }
+
+    private static long pack(int connId, int status) {
+        return ((long) connId << 32) | (status & 0xFFFFFFFFL);
+    }
+
+    private static int connId(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int status(long state) {
+        return (int) state;
+    }
+
+}
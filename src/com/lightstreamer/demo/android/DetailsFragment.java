@@ -15,8 +15,11 @@
  */
 package com.lightstreamer.demo.android;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.androidplot.xy.XYGraphWidget;
@@ -47,21 +50,22 @@ public class DetailsFragment extends Fragment {
     
     private static final String TAG = "Details";
     
-    public final static String[] numericFields = {"last_price", "pct_change","bid_quantity", "bid", "ask", "ask_quantity", "min", "max","open_price"};
-    public final static String[] otherFields = {"stock_name", "time"};
-    public final static String[] subscriptionFields = {"stock_name", "last_price", "time", "pct_change","bid_quantity", "bid", "ask", "ask_quantity", "min", "max","open_price"};
-    public final static String[] mpnSubscriptionFields = {"stock_name", "last_price", "time"};
-    
     private final SubscriptionFragment subscriptionHandling = new SubscriptionFragment();
     private Handler handler;
-    HashMap<String, TextView> holder =  new HashMap<String, TextView>();
+    //the Stock posts its redraws through it, see Stock.update
+    private final Executor uiThread = new Executor() {
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
+    TextView[] holder = new TextView[QuoteSchema.COUNT]; //by QuoteSchema index
     Chart chart = new Chart();
     ToggleButton toggle;
     
     public static final String ARG_ITEM = "item";
     public static final String ARG_PN_CONTROLS = "pn_controls";
     
-    int currentItem = 0;
+    String currentItem = null;
 
     private ItemSubscription currentSubscription = null;
 
@@ -85,7 +89,7 @@ public class DetailsFragment extends Fragment {
         // the previous article selection set by onSaveInstanceState().
         // This is primarily necessary when in the two-pane layout.
         if (savedInstanceState != null) {
-            currentItem = savedInstanceState.getInt(ARG_ITEM);
+            currentItem = savedInstanceState.getString(ARG_ITEM);
             pnEnabled = savedInstanceState.getBoolean(ARG_PN_CONTROLS);
         }
         
@@ -98,17 +102,17 @@ public class DetailsFragment extends Fragment {
         
         this.enablePN(pnEnabled);
 
-        holder.put("stock_name",(TextView)view.findViewById(R.id.d_stock_name));
-        holder.put("last_price",(TextView)view.findViewById(R.id.d_last_price));
-        holder.put("time",(TextView)view.findViewById(R.id.d_time));
-        holder.put("pct_change",(TextView)view.findViewById(R.id.d_pct_change));
-        holder.put("bid_quantity",(TextView)view.findViewById(R.id.d_bid_quantity));
-        holder.put("bid",(TextView)view.findViewById(R.id.d_bid));
-        holder.put("ask",(TextView)view.findViewById(R.id.d_ask));
-        holder.put("ask_quantity",(TextView)view.findViewById(R.id.d_ask_quantity));
-        holder.put("min",(TextView)view.findViewById(R.id.d_min));
-        holder.put("max",(TextView)view.findViewById(R.id.d_max));
-        holder.put("open_price",(TextView)view.findViewById(R.id.d_open_price));
+        holder[QuoteSchema.STOCK_NAME] = (TextView)view.findViewById(R.id.d_stock_name);
+        holder[QuoteSchema.LAST_PRICE] = (TextView)view.findViewById(R.id.d_last_price);
+        holder[QuoteSchema.TIME] = (TextView)view.findViewById(R.id.d_time);
+        holder[QuoteSchema.PCT_CHANGE] = (TextView)view.findViewById(R.id.d_pct_change);
+        holder[QuoteSchema.BID_QUANTITY] = (TextView)view.findViewById(R.id.d_bid_quantity);
+        holder[QuoteSchema.BID] = (TextView)view.findViewById(R.id.d_bid);
+        holder[QuoteSchema.ASK] = (TextView)view.findViewById(R.id.d_ask);
+        holder[QuoteSchema.ASK_QUANTITY] = (TextView)view.findViewById(R.id.d_ask_quantity);
+        holder[QuoteSchema.MIN] = (TextView)view.findViewById(R.id.d_min);
+        holder[QuoteSchema.MAX] = (TextView)view.findViewById(R.id.d_max);
+        holder[QuoteSchema.OPEN_PRICE] = (TextView)view.findViewById(R.id.d_open_price);
         
         final XYPlot plot = (XYPlot) view.findViewById(R.id.mySimpleXYPlot);
         chart.setPlot(plot);
@@ -165,13 +169,23 @@ public class DetailsFragment extends Fragment {
 
         Bundle args = getArguments();
         if (args != null) {
-            updateStocksView(args.getInt(ARG_ITEM));
+            updateStocksView(args.getString(ARG_ITEM));
             enablePN(args.getBoolean(ARG_PN_CONTROLS));
-        } else if (currentItem != 0) {
+        } else if (currentItem != null) {
             updateStocksView(currentItem);
         }
     }
     
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        //the Stock draws on the views: onStart starts over with the new ones
+        if (this.currentSubscription != null) {
+            this.currentSubscription.disable();
+            this.currentSubscription = null;
+        }
+    }
+    
     @Override
     public void onPause() {
         super.onPause();
@@ -193,12 +207,12 @@ public class DetailsFragment extends Fragment {
     }
     
     
-    public void updateStocksView(int item) {
-        if (item != currentItem || this.currentSubscription == null) {
+    public void updateStocksView(String item) {
+        if (!item.equals(currentItem) || this.currentSubscription == null) {
             if (this.currentSubscription != null) {
                 this.currentSubscription.disable();
             }
-            this.currentSubscription = new ItemSubscription("item"+item);
+            this.currentSubscription = new ItemSubscription(item);
             this.subscriptionHandling.setSubscription(this.currentSubscription);
             
             currentItem = item;
@@ -206,19 +220,19 @@ public class DetailsFragment extends Fragment {
     }
     
     
-    public int getCurrentStock() {
+    public String getCurrentStock() {
         return this.currentItem;
     }
     
     public void togglePN(ToggleButton toggle) {
         //TODO toggle status can be overridden by the onMpnStatusChanged: find a user friendly way to handle the case
         boolean on = toggle.isChecked();
-        if (currentItem != 0) {
+        if (currentItem != null) {
             if (on) {
-                Log.v(TAG,"PN enabled for item" + currentItem);
+                Log.v(TAG,"PN enabled for " + currentItem);
                 this.subscriptionHandling.activateMPN(getMpnInfo(-1));
             } else {
-                Log.v(TAG,"PN disabled for item" +currentItem);
+                Log.v(TAG,"PN disabled for " +currentItem);
                 this.subscriptionHandling.deactivateMPN(getMpnInfo(-1));
             }
             
@@ -234,50 +248,44 @@ public class DetailsFragment extends Fragment {
         
         ExtendedTableInfo tableInfo = this.currentSubscription.getTableInfo();
         
+        return buildMpnInfo(tableInfo.getItems()[0], triggetToString(trigger,this.currentSubscription.getLastPrice()));
+    }
+    
+    /*
+     * the MpnInfo for the given item and trigger; used also to rebuild pending
+     * operations journaled by the LightstreamerClient (the group is the item name)
+     */
+    public static MpnInfo buildMpnInfo(String item, String trigger) {
+        
         Map<String, String> data= new HashMap<String, String>();
         data.put("stock_name", "${stock_name}");
         data.put("last_price", "${last_price}");
         data.put("time", "${time}");
-        data.put("item", tableInfo.getItems()[0]);
+        data.put("item", item);
         
-        ExtendedTableInfo clone = null;
+        ExtendedTableInfo tableInfo = null;
         try {
-            clone = new ExtendedTableInfo(tableInfo.getItems(), "MERGE", mpnSubscriptionFields , false);
+            tableInfo = new ExtendedTableInfo(new String[] {item}, "MERGE", QuoteSchema.LIST.getFieldNames() , false);
         } catch (SubscrException e) {
             Log.wtf(TAG, "can't happen");
         }
-        clone.setDataAdapter("QUOTE_ADAPTER");
+        tableInfo.setDataAdapter("QUOTE_ADAPTER");
         
-        MpnInfo info = new MpnInfo(clone,"Stock update",data);
+        MpnInfo info = new MpnInfo(tableInfo,"Stock update",data);
         info.setDelayWhileIdle("false");
         info.setTimeToLive("300");
         
-        //this.getLastPrice()
-        
-        info.setTriggerExpression(triggetToString(trigger,this.currentSubscription.getLastPrice()));
-        
+        info.setTriggerExpression(trigger);
         
         return info;
     }
     
-    public static final String TRIGGER_HEAD = "Double.parseDouble($[2])";
-    public static final String TRIGGER_LT = "<=";
-    public static final String TRIGGER_GT = ">=";
+    public static final String TRIGGER_HEAD = MpnTriggers.HEAD;
+    public static final String TRIGGER_LT = MpnTriggers.LT;
+    public static final String TRIGGER_GT = MpnTriggers.GT;
     
     public String triggetToString(double triggerVal, double current) {
-        String trigger = null;
-        if (triggerVal >= 0) {
-            trigger = TRIGGER_HEAD;
-            if (triggerVal < current) {
-                trigger += TRIGGER_LT; 
-            } else {
-                trigger += TRIGGER_GT;
-            }
-            
-            trigger += triggerVal;
-        }
-        
-        return trigger; 
+        return MpnTriggers.toString(triggerVal, current);
     }
    
 
@@ -304,7 +312,7 @@ public class DetailsFragment extends Fragment {
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        outState.putInt(ARG_ITEM, currentItem);
+        outState.putString(ARG_ITEM, currentItem);
         outState.putBoolean(ARG_PN_CONTROLS, this.pnEnabled);
     }
     
@@ -317,14 +325,14 @@ public class DetailsFragment extends Fragment {
         private StockListener listener;
         
         public ItemSubscription(String item) {
-            this.stock = new Stock(item,numericFields,otherFields);
+            this.stock = new Stock(item,SnapshotStore.get(getActivity()));
             stock.setHolder(holder);
             stock.setChart(chart);
                      
             this.listener = new StockListener(stock);
             
             try {
-                this.tableInfo = new ExtendedTableInfo(new String[] {item}, "MERGE", subscriptionFields , true);
+                this.tableInfo = new ExtendedTableInfo(new String[] {item}, "MERGE", QuoteSchema.DETAILS.getFieldNames() , true);
                 this.tableInfo.setDataAdapter("QUOTE_ADAPTER");
             } catch (SubscrException e) {
                 Log.wtf(TAG, "I'm pretty sure MERGE is compatible with the snapshot request!");
@@ -333,6 +341,8 @@ public class DetailsFragment extends Fragment {
 
         public void disable() {
             this.listener.disable();
+            this.stock.cancel();
+            Log.d(TAG,"Updates " + stock.getUpdates() + ", merged before being shown " + stock.getMergedUpdates());
         }
 
         @Override
@@ -370,6 +380,7 @@ public class DetailsFragment extends Fragment {
         
         private AtomicBoolean disabled = new AtomicBoolean(false);
         private final Stock stock;
+        private final QuoteUpdate update = new QuoteUpdate(QuoteSchema.DETAILS); //refilled by each update
         
         public StockListener(Stock stock) {
             this.stock = stock;
@@ -401,11 +412,17 @@ public class DetailsFragment extends Fragment {
 
         @Override
         public void onUpdate(int itemPos, String itemName, UpdateInfo newData) {
+            long receivedAt = System.nanoTime();
             if (disabled.get()) {
                 return;
             }
-            Log.v(TAG,"Update for " + itemName);
-            this.stock.update(newData,handler);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                //no string building on the update path otherwise
+                Log.v(TAG,"Update for " + itemName);
+            }
+            synchronized(update) {
+                this.stock.update(update.wrap(newData),uiThread,receivedAt);
+            }
         }
 
         @Override
@@ -414,26 +431,59 @@ public class DetailsFragment extends Fragment {
                 return;
             }
             
-            double triggerDouble = -1;
             if (trigger != null) {
-                try {
-                    triggerDouble = Double.parseDouble(trigger.substring(TRIGGER_HEAD.length()+TRIGGER_GT.length()));
-                } catch(NumberFormatException e) {
-                    Log.wtf(TAG, "Unexpected trigger set: " + trigger);
-                }
+                double triggerDouble = parseTrigger(trigger);
                 if (activated) {
                     chart.setTriggerLine(triggerDouble);
                 } else {
                     chart.removeTriggerLine(triggerDouble);
                 }
             } else {
-                handler.post(new Runnable() {
-                    public void run() {
-                        toggle.setChecked(activated);
+                setToggle(activated);
+            }
+            
+        }
+        
+        @Override
+        public void onMpnStatusesChanged(Map<String,Boolean> statuses) {
+            if (disabled.get()) {
+                return;
+            }
+            
+            List<Double> activated = new ArrayList<Double>(statuses.size());
+            List<Double> deactivated = new ArrayList<Double>(statuses.size());
+            for (Map.Entry<String,Boolean> status : statuses.entrySet()) {
+                String trigger = status.getKey();
+                if (trigger != null) {
+                    if (status.getValue()) {
+                        activated.add(parseTrigger(trigger));
+                    } else {
+                        deactivated.add(parseTrigger(trigger));
                     }
-                });
+                } else {
+                    setToggle(status.getValue());
+                }
             }
             
+            //a single redraw for the whole set
+            chart.setTriggerLines(activated, deactivated);
+        }
+        
+        private double parseTrigger(String trigger) {
+            try {
+                return MpnTriggers.parse(trigger);
+            } catch(NumberFormatException e) {
+                Log.wtf(TAG, "Unexpected trigger set: " + trigger);
+                return -1;
+            }
+        }
+        
+        private void setToggle(final boolean activated) {
+            handler.post(new Runnable() {
+                public void run() {
+                    toggle.setChecked(activated);
+                }
+            });
         }
         
         
@@ -0,0 +1,779 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lightstreamer.ls_client.ConnectionConstraints;
+import com.lightstreamer.ls_client.ConnectionInfo;
+import com.lightstreamer.ls_client.ConnectionListener;
+import com.lightstreamer.ls_client.ExtendedTableInfo;
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.PushConnException;
+import com.lightstreamer.ls_client.PushServerException;
+import com.lightstreamer.ls_client.PushUserException;
+import com.lightstreamer.ls_client.SubscrException;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+import com.lightstreamer.ls_client.UpdateInfo;
+import com.lightstreamer.ls_client.mpn.MpnInfo;
+import com.lightstreamer.ls_client.mpn.MpnStatus;
+
+/*
+ * In-process stand-in for a Lightstreamer server with the QUOTE_ADAPTER.
+ * Plain Java (no Android classes), so that the update path can be loaded on
+ * a JVM. Each table gets a snapshot and then its share of a synthetic stream
+ * of updates, spread over all the subscribed items at the configured total
+ * rate and filtered by the requested max frequency of the table, like the
+ * server would do. Updates are delivered from a single generator thread.
+ * Faults can be injected at any time: failed connections, stalls,
+ * disconnections and errors on the mpn requests.
+ */
+public class FakePushTransport implements PushTransport {
+
+    public static final String[] FIELDS = {"stock_name", "last_price", "time", "pct_change", "bid_quantity",
+        "bid", "ask", "ask_quantity", "min", "max", "ref_price", "open_price"};
+
+    private static final int STOCK_NAME = 0;
+    private static final int LAST_PRICE = 1;
+    private static final int TIME = 2;
+    private static final int PCT_CHANGE = 3;
+    private static final int BID_QUANTITY = 4;
+    private static final int BID = 5;
+    private static final int ASK = 6;
+    private static final int ASK_QUANTITY = 7;
+    private static final int MIN = 8;
+    private static final int MAX = 9;
+    private static final int REF_PRICE = 10;
+    private static final int OPEN_PRICE = 11;
+
+    private static final Map<String,Integer> FIELD_INDEXES = new HashMap<String,Integer>();
+    static {
+        for (int i = 0; i < FIELDS.length; i++) {
+            FIELD_INDEXES.put(FIELDS[i], i);
+        }
+    }
+
+    private static final long TICK_MICROS = 1000;
+
+    //error codes of the mpn requests on unknown subscriptions, see LightstreamerClient.isMpnSubscriptionAlive
+    private static final int MPN_NOT_FOUND = 45;
+
+    /*
+     * item1..itemN, the names the QUOTE_ADAPTER knows
+     */
+    public static String[] items(int count) {
+        String[] items = new String[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = "item" + (i + 1);
+        }
+        return items;
+    }
+
+    private final double rate;
+    private final Random random;
+    private final ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            //a stand-in server must not keep the JVM alive
+            Thread thread = new Thread(r, "FakePushTransport");
+            thread.setDaemon(true);
+            generatorThread = thread;
+            return thread;
+        }
+    });
+
+    private volatile Thread generatorThread = null;
+
+    private ConnectionListener listener = null; // guarded by this
+    private ScheduledFuture<?> ticking = null; // guarded by this
+    private final Map<Integer,Table> tables = new LinkedHashMap<Integer,Table>(); // guarded by this
+    private volatile Table[] activeTables = new Table[0];
+    private int nextKey = 1; // guarded by this
+    private volatile boolean stalled = false;
+    private volatile double maxBandwidth = 0;
+
+    private final Map<String,Quote> quotes = new HashMap<String,Quote>(); // generator thread only
+    private double budget = 0; // generator thread only
+    private int tableCursor = 0; // generator thread only
+    private int itemCursor = 0; // generator thread only
+
+    private final Map<String,MpnEntry> mpns = new LinkedHashMap<String,MpnEntry>(); // guarded by this
+
+    private final AtomicInteger connectionFailures = new AtomicInteger(0);
+    private final AtomicInteger mpnFailures = new AtomicInteger(0);
+    private volatile int mpnErrorCode = 0;
+    private volatile long mpnInquiryLatency = 0;
+    private final AtomicInteger mpnInquiriesInFlight = new AtomicInteger(0);
+    private final AtomicInteger maxMpnInquiriesInFlight = new AtomicInteger(0);
+    private final AtomicLong mpnInquiries = new AtomicLong(0);
+    private final AtomicLong mpnRequests = new AtomicLong(0);
+    private final AtomicInteger batches = new AtomicInteger(0);
+    private final AtomicInteger unsubscriptions = new AtomicInteger(0);
+
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong filtered = new AtomicLong(0);
+
+    /*
+     * updatesPerSecond is the total over all the subscribed items (1 to 10000 is
+     * the tested range); the seed makes the streams reproducible
+     */
+    public FakePushTransport(double updatesPerSecond, long seed) {
+        this.rate = updatesPerSecond;
+        this.random = new Random(seed);
+    }
+
+//Fault injection
+
+    /*
+     * the next count connection attempts fail
+     */
+    public void failNextConnections(int count) {
+        connectionFailures.set(count);
+    }
+
+    /*
+     * the next count mpn requests are refused with the given code
+     */
+    public void failNextMpnRequests(int count, int errorCode) {
+        mpnErrorCode = errorCode;
+        mpnFailures.set(count);
+    }
+
+    /*
+     * no updates (nor keepalives) for the given time
+     */
+    public void stall(final long millis) {
+        generator.execute(new Runnable() {
+            public void run() {
+                ConnectionListener current = getListener();
+                if (current == null || stalled) {
+                    return;
+                }
+                stalled = true;
+                current.onActivityWarning(true);
+                generator.schedule(new Runnable() {
+                    public void run() {
+                        stalled = false;
+                        ConnectionListener current = getListener();
+                        if (current != null) {
+                            current.onActivityWarning(false);
+                        }
+                    }
+                }, millis, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /*
+     * the session is closed by the "server"
+     */
+    public void disconnect() {
+        final ConnectionListener closed = this.close();
+        if (closed != null) {
+            generator.execute(new Runnable() {
+                public void run() {
+                    closed.onClose();
+                }
+            });
+        }
+    }
+
+    /*
+     * each mpn status inquiry takes the given time, as a round trip would
+     */
+    public void setMpnInquiryLatency(long millis) {
+        mpnInquiryLatency = millis;
+    }
+
+    /*
+     * the active mpn subscriptions become triggered
+     */
+    public synchronized void triggerMpns() {
+        for (MpnEntry entry : mpns.values()) {
+            entry.status = MpnStatus.Triggered;
+        }
+    }
+
+    public synchronized int getMpnCount() {
+        return mpns.size();
+    }
+
+    /*
+     * all the mpn requests received, inquiries included
+     */
+    public long getMpnRequests() {
+        return mpnRequests.get();
+    }
+
+    public long getMpnInquiries() {
+        return mpnInquiries.get();
+    }
+
+    /*
+     * the most mpn status inquiries served at the same time
+     */
+    public int getMaxMpnInquiriesInFlight() {
+        return maxMpnInquiriesInFlight.get();
+    }
+
+    public synchronized int getTableCount() {
+        return tables.size();
+    }
+
+    public int getBatches() {
+        return batches.get();
+    }
+
+    /*
+     * unsubscription requests, whatever the number of tables each
+     */
+    public int getUnsubscriptions() {
+        return unsubscriptions.get();
+    }
+
+    public long getSentUpdates() {
+        return sent.get();
+    }
+
+    /*
+     * updates dropped by the max frequency or the bandwidth constraint
+     */
+    public long getFilteredUpdates() {
+        return filtered.get();
+    }
+
+//PushTransport
+
+    @Override
+    public void openConnection(ConnectionInfo info, ConnectionListener listener)
+            throws PushConnException, PushServerException, PushUserException {
+        if (connectionFailures.getAndDecrement() > 0) {
+            throw new PushConnException("Injected connection failure");
+        }
+        connectionFailures.set(0);
+
+        this.close();
+        synchronized(this) {
+            this.listener = listener;
+            this.stalled = false;
+            this.ticking = generator.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    tick();
+                }
+            }, TICK_MICROS, TICK_MICROS, TimeUnit.MICROSECONDS);
+        }
+
+        final ConnectionListener started = listener;
+        generator.execute(new Runnable() {
+            public void run() {
+                started.onConnectionEstablished();
+                started.onSessionStarted(false);
+            }
+        });
+    }
+
+    @Override
+    public void closeConnection() {
+        this.close();
+        //like the real client, nothing is notified once closed: wait for the tick in progress, if any
+        if (Thread.currentThread() != generatorThread) {
+            try {
+                generator.submit(new Runnable() {
+                    public void run() {
+                    }
+                }).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                //can't happen
+            }
+        }
+    }
+
+    @Override
+    public void changeConstraints(ConnectionConstraints constraints) {
+        //the ConnectionConstraints can't be read back, see setMaxBandwidth
+    }
+
+    /*
+     * the bandwidth limit in kbps applied to the stream, 0 for none
+     */
+    public void setMaxBandwidth(double maxBandwidth) {
+        this.maxBandwidth = maxBandwidth;
+    }
+
+    @Override
+    public void batchRequests(int batchSize) throws SubscrException {
+        this.checkConnected();
+        batches.incrementAndGet();
+    }
+
+    @Override
+    public void closeBatch() {
+    }
+
+    @Override
+    public SubscribedTableKey subscribeTable(ExtendedTableInfo info, HandyTableListener listener, boolean commandLogic)
+            throws SubscrException {
+        final Table table;
+        synchronized(this) {
+            this.checkConnected();
+            table = new Table(nextKey++, info, listener);
+            tables.put(table.key, table);
+            activeTables = tables.values().toArray(new Table[tables.size()]);
+        }
+
+        if (info.isSnapshotRequired()) {
+            generator.execute(new Runnable() {
+                public void run() {
+                    sendSnapshot(table);
+                }
+            });
+        }
+        return new SubscribedTableKey(table.key);
+    }
+
+    @Override
+    public void unsubscribeTable(SubscribedTableKey key) throws SubscrException {
+        this.unsubscribeTables(new SubscribedTableKey[] {key});
+    }
+
+    @Override
+    public void unsubscribeTables(SubscribedTableKey[] keys) throws SubscrException {
+        final List<Table> removed = new ArrayList<Table>(keys.length);
+        synchronized(this) {
+            this.checkConnected();
+            unsubscriptions.incrementAndGet();
+            for (SubscribedTableKey key : keys) {
+                Table table = tables.remove(key.getKeyValue());
+                if (table != null) {
+                    table.active = false;
+                    removed.add(table);
+                }
+            }
+            activeTables = tables.values().toArray(new Table[tables.size()]);
+        }
+
+        generator.execute(new Runnable() {
+            public void run() {
+                for (Table table : removed) {
+                    for (int i = 0; i < table.items.length; i++) {
+                        table.listener.onUnsubscr(i + 1, table.items[i]);
+                    }
+                    table.listener.onUnsubscrAll();
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized List<MpnInfo> inquireAllMpn() throws SubscrException, PushUserException {
+        this.checkMpnRequest();
+        List<MpnInfo> infos = new ArrayList<MpnInfo>(mpns.size());
+        for (MpnEntry entry : mpns.values()) {
+            infos.add(entry.info);
+        }
+        return infos;
+    }
+
+    @Override
+    public MpnStatus inquireMpnStatus(MpnInfo info) throws SubscrException, PushUserException {
+        int inFlight = mpnInquiriesInFlight.incrementAndGet();
+        try {
+            int max;
+            do {
+                max = maxMpnInquiriesInFlight.get();
+            } while (inFlight > max && !maxMpnInquiriesInFlight.compareAndSet(max, inFlight));
+            if (mpnInquiryLatency > 0) {
+                try {
+                    Thread.sleep(mpnInquiryLatency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized(this) {
+                this.checkMpnRequest();
+                MpnEntry entry = mpns.get(mpnKey(info));
+                if (entry == null) {
+                    throw new PushUserException(MPN_NOT_FOUND, "Unknown mpn subscription");
+                }
+                return entry.status;
+            }
+        } finally {
+            mpnInquiriesInFlight.decrementAndGet();
+            mpnInquiries.incrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized void activateMpn(MpnInfo info) throws SubscrException, PushUserException {
+        this.checkMpnRequest();
+        mpns.put(mpnKey(info), new MpnEntry(info));
+    }
+
+    @Override
+    public synchronized void deactivateMpn(MpnInfo info) throws SubscrException, PushUserException {
+        this.checkMpnRequest();
+        if (mpns.remove(mpnKey(info)) == null) {
+            throw new PushUserException(MPN_NOT_FOUND, "Unknown mpn subscription");
+        }
+    }
+
+    @Override
+    public synchronized void deactivateMpn(MpnStatus status) throws SubscrException, PushUserException {
+        this.checkMpnRequest();
+        Iterator<MpnEntry> entries = mpns.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().status == status) {
+                entries.remove();
+            }
+        }
+    }
+
+//Internals
+
+    private synchronized ConnectionListener getListener() {
+        return listener;
+    }
+
+    /*
+     * returns the listener of the closed session, if any
+     */
+    private synchronized ConnectionListener close() {
+        ConnectionListener closed = listener;
+        listener = null;
+        if (ticking != null) {
+            ticking.cancel(false);
+            ticking = null;
+        }
+        for (Table table : tables.values()) {
+            table.active = false;
+        }
+        tables.clear();
+        activeTables = new Table[0];
+        return closed;
+    }
+
+    private void checkConnected() throws SubscrException {
+        if (listener == null) {
+            throw new SubscrException("Not connected");
+        }
+    }
+
+    private void checkMpnRequest() throws SubscrException, PushUserException {
+        mpnRequests.incrementAndGet();
+        this.checkConnected();
+        if (mpnFailures.getAndDecrement() > 0) {
+            throw new PushUserException(mpnErrorCode, "Injected mpn failure");
+        }
+        mpnFailures.set(0);
+    }
+
+    private static String mpnKey(MpnInfo info) {
+        return info.getTableInfo().getGroup() + "|" + info.getTriggerExpression();
+    }
+
+    private void sendSnapshot(Table table) { //generator thread
+        for (int i = 0; i < table.items.length; i++) {
+            if (!table.active) {
+                return;
+            }
+            Quote quote = this.getQuote(table.items[i]);
+            table.deliver(i, quote.values, true, System.nanoTime());
+            table.listener.onSnapshotEnd(i + 1, table.items[i]);
+        }
+        table.streaming = true;
+    }
+
+    private void tick() { //generator thread
+        budget += rate * TICK_MICROS / 1000000.0;
+        int count = (int) budget;
+        budget -= count;
+
+        ConnectionListener current = this.getListener();
+        Table[] active = activeTables;
+        if (current == null || stalled || active.length == 0 || count == 0) {
+            return;
+        }
+
+        long maxBytes = maxBandwidth > 0 ? (long) (maxBandwidth * 1000 / 8 * TICK_MICROS / 1000000.0) : Long.MAX_VALUE;
+        long bytes = 0;
+        long now = System.nanoTime();
+        for (int n = 0; n < count; n++) {
+            if (tableCursor >= active.length) {
+                tableCursor = 0;
+                itemCursor = 0;
+            }
+            Table table = active[tableCursor];
+            int item = itemCursor;
+            if (++itemCursor >= table.items.length) {
+                itemCursor = 0;
+                tableCursor++;
+            }
+            if (!table.streaming) {
+                continue;
+            }
+
+            Quote quote = this.getQuote(table.items[item]);
+            quote.next(random);
+            if (bytes >= maxBytes || !table.deliver(item, quote.values, false, now)) {
+                filtered.incrementAndGet();
+                continue;
+            }
+            bytes += quote.size();
+        }
+        if (bytes > 0) {
+            current.onNewBytes(bytes);
+        }
+    }
+
+    private Quote getQuote(String item) { //generator thread
+        Quote quote = quotes.get(item);
+        if (quote == null) {
+            quote = new Quote(item, random);
+            quotes.put(item, quote);
+        }
+        return quote;
+    }
+
+    private class Table {
+
+        final int key;
+        final String[] items;
+        final String[] fields;
+        final int[] indexes; // position in FIELDS of each field of the table, -1 if unknown
+        final HandyTableListener listener;
+        final long minInterval;
+
+        final long[] lastSent;
+        final String[][] lastValues;
+        volatile boolean active = true;
+        volatile boolean streaming; // no updates before the snapshot
+
+        Table(int key, ExtendedTableInfo info, HandyTableListener listener) {
+            this.key = key;
+            this.items = info.getItems();
+            this.fields = info.getFields();
+            this.listener = listener;
+
+            this.indexes = new int[fields.length];
+            for (int f = 0; f < fields.length; f++) {
+                Integer index = FIELD_INDEXES.get(fields[f]);
+                indexes[f] = index == null ? -1 : index;
+            }
+
+            double frequency = info.getRequestedMaxFrequency();
+            this.minInterval = frequency > 0 ? (long) (1000000000 / frequency) : 0;
+
+            this.lastSent = new long[items.length];
+            this.lastValues = new String[items.length][];
+            this.streaming = !info.isSnapshotRequired();
+        }
+
+        /*
+         * returns false if filtered by the max frequency
+         */
+        boolean deliver(int item, String[] quote, boolean snapshot, long now) { //generator thread
+            if (!active) {
+                return false;
+            }
+            if (!snapshot && lastValues[item] != null && now - lastSent[item] < minInterval) {
+                return false;
+            }
+            String[] values = new String[fields.length];
+            for (int f = 0; f < fields.length; f++) {
+                values[f] = indexes[f] == -1 ? null : quote[indexes[f]];
+            }
+            String[] old = lastValues[item];
+            lastValues[item] = values;
+            lastSent[item] = now;
+
+            sent.incrementAndGet();
+            listener.onUpdate(item + 1, items[item], new FakeUpdate(this, item, old, values, snapshot));
+            return true;
+        }
+
+        int fieldPos(String field) {
+            for (int f = 0; f < fields.length; f++) {
+                if (fields[f].equals(field)) {
+                    return f;
+                }
+            }
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    private static class FakeUpdate implements UpdateInfo {
+
+        private final Table table;
+        private final int item;
+        private final String[] oldValues;
+        private final String[] newValues;
+        private final boolean snapshot;
+
+        FakeUpdate(Table table, int item, String[] oldValues, String[] newValues, boolean snapshot) {
+            this.table = table;
+            this.item = item;
+            this.oldValues = oldValues;
+            this.newValues = newValues;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean isSnapshot() {
+            return snapshot;
+        }
+
+        @Override
+        public boolean isValueChanged(String field) {
+            return this.isValueChanged(table.fieldPos(field) + 1);
+        }
+
+        @Override
+        public boolean isValueChanged(int fieldPos) {
+            if (oldValues == null) {
+                return true;
+            }
+            String oldValue = oldValues[fieldPos - 1];
+            String newValue = newValues[fieldPos - 1];
+            return oldValue == null ? newValue != null : !oldValue.equals(newValue);
+        }
+
+        @Override
+        public String getNewValue(String field) {
+            return newValues[table.fieldPos(field)];
+        }
+
+        @Override
+        public String getNewValue(int fieldPos) {
+            return newValues[fieldPos - 1];
+        }
+
+        @Override
+        public String getOldValue(String field) {
+            return oldValues == null ? null : oldValues[table.fieldPos(field)];
+        }
+
+        @Override
+        public String getOldValue(int fieldPos) {
+            return oldValues == null ? null : oldValues[fieldPos - 1];
+        }
+
+        @Override
+        public int getNumFields() {
+            return newValues.length;
+        }
+
+        @Override
+        public String getItemName() {
+            return table.items[item];
+        }
+
+        @Override
+        public int getItemPos() {
+            return item + 1;
+        }
+    }
+
+    /*
+     * a random walk around a reference price
+     */
+    private static class Quote {
+
+        final String[] values = new String[FIELDS.length];
+        private final double ref;
+        private double price;
+        private double min;
+        private double max;
+
+        Quote(String item, Random random) {
+            ref = 5 + random.nextInt(3000) / 100.0;
+            price = ref;
+            min = ref;
+            max = ref;
+            values[STOCK_NAME] = "Stock " + item;
+            values[REF_PRICE] = format(ref);
+            values[OPEN_PRICE] = format(ref);
+            this.next(random);
+        }
+
+        void next(Random random) {
+            price = Math.max(0.01, price * (1 + (random.nextDouble() - 0.5) / 100));
+            min = Math.min(min, price);
+            max = Math.max(max, price);
+            double spread = price / 500;
+
+            values[LAST_PRICE] = format(price);
+            values[TIME] = time(System.currentTimeMillis());
+            values[PCT_CHANGE] = format((price - ref) / ref * 100);
+            values[BID] = format(price - spread);
+            values[ASK] = format(price + spread);
+            values[BID_QUANTITY] = Integer.toString(1000 + random.nextInt(99000));
+            values[ASK_QUANTITY] = Integer.toString(1000 + random.nextInt(99000));
+            values[MIN] = format(min);
+            values[MAX] = format(max);
+        }
+
+        /*
+         * roughly the bytes of an update on the wire
+         */
+        int size() {
+            int size = 0;
+            for (String value : values) {
+                size += value.length() + 1;
+            }
+            return size;
+        }
+
+        private static String format(double value) {
+            long cents = Math.round(value * 100);
+            long abs = Math.abs(cents);
+            return (cents < 0 ? "-" : "") + abs / 100 + "." + (abs % 100 < 10 ? "0" : "") + abs % 100;
+        }
+
+        private static String time(long millis) {
+            long seconds = millis / 1000 % 86400;
+            return two(seconds / 3600) + ":" + two(seconds / 60 % 60) + ":" + two(seconds % 60);
+        }
+
+        private static String two(long value) {
+            return value < 10 ? "0" + value : Long.toString(value);
+        }
+    }
+
+    private static class MpnEntry {
+        final MpnInfo info;
+        MpnStatus status = MpnStatus.Active;
+
+        MpnEntry(MpnInfo info) {
+            this.info = info;
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Choreographer;
+
+/*
+ * Periodically chooses the max frequency of the list subscription from what
+ * the device can show: the row redraws a smooth list can take (scaled by the
+ * share of frames drawn in time) spread over the visible rows, capped on
+ * cellular networks, on low battery and while updates are being lost.
+ * Changes are quantized and confirmed twice before being applied, since
+ * each one costs a resubscription. All calls from the UI thread.
+ */
+class FrequencyController implements RowDispatcher.RedrawListener {
+
+    private static final String TAG = "LS_FREQ";
+
+    private static final long EVALUATION_INTERVAL = 5000;
+    private static final long MIN_CHANGE_INTERVAL = 15000;
+
+    private static final double[] STEPS = {0.2, 0.5, 1, 2, 3, 5};
+
+    private static final double ROW_UPDATES_BUDGET = 60; // row redraws per second
+    private static final double WIFI_CAP = 5;
+    private static final double CELLULAR_CAP = 1;
+    private static final double LOW_BATTERY_CAP = 0.5;
+    private static final double BACKGROUND_FREQUENCY = 0.2;
+    private static final double MIN_FRAME_HEALTH = 0.25;
+    private static final double MIN_LOSS_FACTOR = 0.125;
+
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private final Context context;
+    private final Handler handler;
+    private final MainSubscription subscription;
+    private final FrameMonitor frames;
+
+    private boolean running = false;
+    private int visibleRows = 0;
+    private long lastLost = 0;
+    private double lossFactor = 1;
+    private double pendingStep = -1;
+    private boolean resumed = false;
+    private long lastChange = 0;
+
+    private final Runnable evaluateTask = new Runnable() {
+        public void run() {
+            evaluate();
+            if (running) {
+                handler.postDelayed(this, EVALUATION_INTERVAL);
+            }
+        }
+    };
+
+    public FrequencyController(Context context, Handler handler, MainSubscription subscription) {
+        this.context = context.getApplicationContext();
+        this.handler = handler;
+        this.subscription = subscription;
+        this.frames = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameMonitor() : null;
+    }
+
+    /*
+     * the list is in the foreground
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        resumed = true;
+        if (frames != null) {
+            frames.start();
+        }
+        handler.post(evaluateTask);
+    }
+
+    /*
+     * the list went to the background: nothing is drawn, keep the model barely
+     * alive; not worth a resubscription if the list is just being recreated
+     */
+    public void stop(boolean recreating) {
+        if (!running) {
+            return;
+        }
+        running = false;
+        handler.removeCallbacks(evaluateTask);
+        if (frames != null) {
+            frames.stop();
+        }
+        if (!recreating) {
+            this.apply(BACKGROUND_FREQUENCY);
+        }
+    }
+
+    public void setVisibleRows(int visibleRows) {
+        this.visibleRows = visibleRows;
+    }
+
+    @Override
+    public void onRowsRedrawn() {
+        if (running && frames != null) {
+            frames.arm();
+        }
+    }
+
+    private void evaluate() {
+        double frameHealth = frames == null ? 1 : Math.max(MIN_FRAME_HEALTH, frames.collect());
+
+        long lost = subscription.getLostUpdates();
+        if (lost > lastLost) {
+            lossFactor = Math.max(MIN_LOSS_FACTOR, lossFactor / 2);
+        } else {
+            lossFactor = Math.min(1, lossFactor * 2);
+        }
+        lastLost = lost;
+
+        double target = ROW_UPDATES_BUDGET * frameHealth / Math.max(1, visibleRows);
+        target = Math.min(target, this.isUnmetered() ? WIFI_CAP : CELLULAR_CAP);
+        if (this.isBatteryLow()) {
+            target = Math.min(target, LOW_BATTERY_CAP);
+        }
+        target *= lossFactor;
+
+        double step = quantize(target);
+        if (resumed) {
+            //back from the background (or just created): no time to wait for confirmations
+            resumed = false;
+            this.apply(step);
+            return;
+        }
+        if (step == subscription.getMaxFrequency()) {
+            pendingStep = -1;
+            return;
+        }
+        if (step != pendingStep) {
+            //wait for a confirmation
+            pendingStep = step;
+            return;
+        }
+        if (System.currentTimeMillis() - lastChange < MIN_CHANGE_INTERVAL) {
+            return;
+        }
+
+        Log.d(TAG,"frames " + frameHealth + ", rows " + visibleRows + ", loss " + lossFactor + " -> " + step);
+        this.apply(step);
+    }
+
+    private void apply(double frequency) {
+        pendingStep = -1;
+        if (frequency == subscription.getMaxFrequency()) {
+            return;
+        }
+        lastChange = System.currentTimeMillis();
+        subscription.setMaxFrequency(frequency);
+    }
+
+    private static double quantize(double frequency) {
+        double step = STEPS[0];
+        for (int i = 1; i < STEPS.length && STEPS[i] <= frequency; i++) {
+            step = STEPS[i];
+        }
+        return step;
+    }
+
+    private boolean isUnmetered() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivity == null ? null : connectivity.getActiveNetworkInfo();
+        if (network == null) {
+            return false;
+        }
+        int type = network.getType();
+        return type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    private boolean isBatteryLow() {
+        //sticky broadcast, no receiver needed
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return false;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+    }
+
+    /*
+     * share of the frames drawn within one and a half vsync periods while
+     * rows are being redrawn: armed by each redraw, it follows the frames
+     * until the list has been quiet for a while, so that an idle list costs
+     * no callbacks (only referenced on JELLY_BEAN+, older devices just trust
+     * their budget)
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameMonitor implements Choreographer.FrameCallback {
+
+        private static final long LATE_FRAME_NANOS = 25000000; //1.5 * 16.7ms
+        private static final long QUIET_NANOS = 500000000;
+
+        private boolean started = false;
+        private boolean armed = false;
+        private long lastRedraw = 0; // nanoTime, same clock as the frame times
+        private long lastFrame = 0;
+        private int frames = 0;
+        private int late = 0;
+
+        void start() {
+            started = true;
+        }
+
+        void stop() {
+            started = false;
+            armed = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        void arm() {
+            lastRedraw = System.nanoTime();
+            if (!started || armed) {
+                return;
+            }
+            armed = true;
+            lastFrame = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (lastFrame != 0) {
+                frames++;
+                if (frameTimeNanos - lastFrame > LATE_FRAME_NANOS) {
+                    late++;
+                }
+            }
+            lastFrame = frameTimeNanos;
+            if (frameTimeNanos - lastRedraw > QUIET_NANOS) {
+                //nothing to watch, the next redraw arms again
+                armed = false;
+                return;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        /*
+         * returns the share since the previous call
+         */
+        double collect() {
+            double health = frames == 0 ? 1 : (frames - late) / (double) frames;
+            frames = 0;
+            late = 0;
+            return health;
+        }
+    }
+
+}
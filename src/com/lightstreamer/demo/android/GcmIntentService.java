@@ -65,18 +65,7 @@ public class GcmIntentService extends IntentService {
 
                 String message= "Stock " + stockName + " is " + lastPrice + " at " + time;
                 
-                int itemNum = 0;
-                String item = extras.getString("item");
-                if (item != null) {
-                    item = item.substring(4);
-                    try {
-                        itemNum = Integer.valueOf(item);
-                    } catch(NumberFormatException nfe) {
-                        //not what I expected
-                    }
-                }
-                
-                extras.putInt("itemNum", itemNum);
+                //the "item" extra (see DetailsFragment.buildMpnInfo) tells StockListDemo which stock to open
 
                 Log.i(TAG, "Received message: " + message);
 
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/*
+ * Turns the update highlights off when they expire, for all the cells on
+ * screen (list rows and details fields): each cell has a deadline in a
+ * binary min-heap (the cell knows its index, so a new highlight just moves
+ * it) and a single frame callback, scheduled for the earliest deadline,
+ * turns off all the expired cells at once. Whatever the update rate there's
+ * at most one entry of ours in the main queue and nothing is allocated once
+ * the heap has grown. UI thread only.
+ */
+class HighlightDecay {
+
+    static final long DURATION = 600;
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private static HighlightDecay instance = null; // UI thread only
+
+    public static HighlightDecay get() {
+        if (instance == null) {
+            instance = new HighlightDecay();
+        }
+        return instance;
+    }
+
+    /*
+     * something that shows a highlight
+     */
+    static abstract class Cell {
+        private int index = -1; // in the heap, -1 if not scheduled
+        private long deadline;
+
+        /*
+         * called once the deadline has passed
+         */
+        abstract void turnOff();
+    }
+
+    private Cell[] heap = new Cell[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final FrameScheduler frames;
+    private boolean pending = false;
+    private long pendingFor = 0;
+
+    //stats
+    private long batches = 0;
+    private long expired = 0;
+    private int maxSize = 0;
+
+    private final Runnable expireTask = new Runnable() {
+        public void run() {
+            pending = false;
+            expire();
+        }
+    };
+
+    private HighlightDecay() {
+        this.frames = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameScheduler() : null;
+    }
+
+    /*
+     * (re)schedules the cell to be turned off at deadline (on the
+     * StockForList.now() clock); a later deadline replaces the current one
+     */
+    public void schedule(Cell cell, long deadline) {
+        if (cell.index == -1) {
+            if (size == heap.length) {
+                Cell[] grown = new Cell[heap.length * 2];
+                System.arraycopy(heap, 0, grown, 0, size);
+                heap = grown;
+            }
+            cell.deadline = deadline;
+            cell.index = size;
+            heap[size++] = cell;
+            this.siftUp(cell.index);
+            maxSize = Math.max(maxSize, size);
+        } else if (deadline != cell.deadline) {
+            boolean later = deadline > cell.deadline;
+            cell.deadline = deadline;
+            if (later) {
+                this.siftDown(cell.index);
+            } else {
+                this.siftUp(cell.index);
+            }
+        }
+        this.reschedule();
+    }
+
+    /*
+     * the cell is gone (e.g. the view has been destroyed)
+     */
+    public void cancel(Cell cell) {
+        if (cell.index == -1) {
+            return;
+        }
+        this.removeAt(cell.index);
+        this.reschedule();
+    }
+
+    private void expire() {
+        long now = StockForList.now();
+        batches++;
+        while (size > 0 && heap[0].deadline <= now) {
+            Cell cell = heap[0];
+            this.removeAt(0);
+            expired++;
+            cell.turnOff();
+        }
+        this.reschedule();
+    }
+
+    /*
+     * keeps a single callback, for the earliest deadline
+     */
+    private void reschedule() {
+        if (size == 0) {
+            if (pending) {
+                this.cancelCallback();
+            }
+            return;
+        }
+        long next = heap[0].deadline;
+        if (pending && pendingFor <= next) {
+            //on its way, anything else will be found then
+            return;
+        }
+        if (pending) {
+            this.cancelCallback();
+        }
+        pending = true;
+        pendingFor = next;
+        long delay = Math.max(0, next - StockForList.now());
+        if (frames != null) {
+            frames.schedule(delay);
+        } else {
+            handler.postDelayed(expireTask, delay);
+        }
+    }
+
+    private void cancelCallback() {
+        pending = false;
+        if (frames != null) {
+            frames.cancel();
+        } else {
+            handler.removeCallbacks(expireTask);
+        }
+    }
+
+    private void removeAt(int i) {
+        Cell removed = heap[i];
+        removed.index = -1;
+        size--;
+        if (i == size) {
+            heap[size] = null;
+            return;
+        }
+        Cell last = heap[size];
+        heap[size] = null;
+        heap[i] = last;
+        last.index = i;
+        this.siftDown(i);
+        if (last.index == i) {
+            this.siftUp(i);
+        }
+    }
+
+    private void siftUp(int i) {
+        Cell cell = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].deadline <= cell.deadline) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heap[i].index = i;
+            i = parent;
+        }
+        heap[i] = cell;
+        cell.index = i;
+    }
+
+    private void siftDown(int i) {
+        Cell cell = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].deadline < heap[child].deadline) {
+                child++;
+            }
+            if (cell.deadline <= heap[child].deadline) {
+                break;
+            }
+            heap[i] = heap[child];
+            heap[i].index = i;
+            i = child;
+        }
+        heap[i] = cell;
+        cell.index = i;
+    }
+
+    public int getScheduled() {
+        return size;
+    }
+
+    public int getMaxScheduled() {
+        return maxSize;
+    }
+
+    /*
+     * callbacks run, each turning off any number of cells
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getExpired() {
+        return expired;
+    }
+
+    /*
+     * (only referenced on JELLY_BEAN+)
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameScheduler implements Choreographer.FrameCallback {
+
+        void schedule(long delay) {
+            Choreographer.getInstance().postFrameCallbackDelayed(this, delay);
+        }
+
+        void cancel() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            pending = false;
+            expire();
+        }
+    }
+
+}
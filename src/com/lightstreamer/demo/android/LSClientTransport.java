@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.List;
+
+import com.lightstreamer.ls_client.ConnectionConstraints;
+import com.lightstreamer.ls_client.ConnectionInfo;
+import com.lightstreamer.ls_client.ConnectionListener;
+import com.lightstreamer.ls_client.ExtendedTableInfo;
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.LSClient;
+import com.lightstreamer.ls_client.PushConnException;
+import com.lightstreamer.ls_client.PushServerException;
+import com.lightstreamer.ls_client.PushUserException;
+import com.lightstreamer.ls_client.SubscrException;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+import com.lightstreamer.ls_client.mpn.MpnInfo;
+import com.lightstreamer.ls_client.mpn.MpnStatus;
+
+/*
+ * The real thing: talks to a Lightstreamer server through the LSClient
+ */
+class LSClientTransport implements PushTransport {
+
+    private final LSClient client = new LSClient();
+
+    @Override
+    public void openConnection(ConnectionInfo info, ConnectionListener listener)
+            throws PushConnException, PushServerException, PushUserException {
+        client.openConnection(info, listener);
+    }
+
+    @Override
+    public void closeConnection() {
+        client.closeConnection();
+    }
+
+    @Override
+    public void changeConstraints(ConnectionConstraints constraints)
+            throws PushConnException, PushServerException, PushUserException {
+        client.changeConstraints(constraints);
+    }
+
+    @Override
+    public void batchRequests(int batchSize) throws SubscrException {
+        client.batchRequests(batchSize);
+    }
+
+    @Override
+    public void closeBatch() {
+        client.closeBatch();
+    }
+
+    @Override
+    public SubscribedTableKey subscribeTable(ExtendedTableInfo table, HandyTableListener listener, boolean commandLogic)
+            throws SubscrException, PushServerException, PushUserException, PushConnException {
+        return client.subscribeTable(table, listener, commandLogic);
+    }
+
+    @Override
+    public void unsubscribeTable(SubscribedTableKey key)
+            throws SubscrException, PushServerException, PushConnException {
+        client.unsubscribeTable(key);
+    }
+
+    @Override
+    public void unsubscribeTables(SubscribedTableKey[] keys)
+            throws SubscrException, PushServerException, PushConnException {
+        client.unsubscribeTables(keys);
+    }
+
+    @Override
+    public List<MpnInfo> inquireAllMpn()
+            throws SubscrException, PushServerException, PushUserException, PushConnException {
+        return client.inquireAllMpn();
+    }
+
+    @Override
+    public MpnStatus inquireMpnStatus(MpnInfo info)
+            throws SubscrException, PushServerException, PushUserException, PushConnException {
+        return client.inquireMpnStatus(info.getMpnKey());
+    }
+
+    @Override
+    public void activateMpn(MpnInfo info)
+            throws SubscrException, PushServerException, PushUserException, PushConnException {
+        client.activateMpn(info);
+    }
+
+    @Override
+    public void deactivateMpn(MpnInfo info)
+            throws SubscrException, PushServerException, PushUserException, PushConnException {
+        client.deactivateMpn(info.getMpnKey());
+    }
+
+    @Override
+    public void deactivateMpn(MpnStatus status)
+            throws SubscrException, PushServerException, PushUserException, PushConnException {
+        client.deactivateMpn(status);
+    }
+
+}
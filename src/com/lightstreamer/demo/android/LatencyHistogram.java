@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Fixed-memory histogram of latencies in microseconds, HdrHistogram style:
+ * exact up to 64us, then 32 linear buckets per power of 2 (values within
+ * about 3% of each other share a bucket) up to 2^40us; larger values are
+ * counted in the last bucket. Recording is lock-free and allocation-free,
+ * from any thread; percentiles are read from a possibly moving target
+ * (good enough for statistics).
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT - SUB_BITS) * HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void recordNanos(long nanos) {
+        this.record(nanos / 1000);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            //clocks of different threads? nothing sensible to count
+            return;
+        }
+        counts.incrementAndGet(indexOf(micros));
+        total.incrementAndGet();
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /*
+     * the highest value (in us) equivalent to the one at the percentile
+     * (0 to 100), 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /*
+     * count of the bucket, see getBucketHighest
+     */
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getBucketHighest(int bucket) {
+        return highestOf(bucket);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - (SUB_BITS - 1);
+        //in [HALF_COUNT, SUB_COUNT)
+        int sub = (int) (value >>> shift);
+        return SUB_COUNT + (exponent - SUB_BITS) * HALF_COUNT + (sub - HALF_COUNT);
+    }
+
+    static long highestOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int k = index - SUB_COUNT;
+        int shift = k / HALF_COUNT + 1;
+        long sub = HALF_COUNT + k % HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+}
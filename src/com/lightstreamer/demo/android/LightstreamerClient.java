@@ -15,23 +15,25 @@
  */
 package com.lightstreamer.demo.android;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import android.util.Log;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import com.lightstreamer.ls_client.ConnectionConstraints;
 import com.lightstreamer.ls_client.ConnectionInfo;
 import com.lightstreamer.ls_client.ConnectionListener;
-import com.lightstreamer.ls_client.LSClient;
 import com.lightstreamer.ls_client.PushConnException;
 import com.lightstreamer.ls_client.PushServerException;
 import com.lightstreamer.ls_client.PushUserException;
@@ -86,11 +88,17 @@ public class LightstreamerClient {
         }
     }
     
-    private LinkedList<Subscription> subscriptions = new LinkedList<Subscription>();
+    private final SubscriptionRegistry subscriptions = new SubscriptionRegistry();
     
     Map<String,Map<String,MpnInfo>> mpnCache = new HashMap<String,Map<String,MpnInfo>>();
     Map<String,Map<String,PendingOp>> mpnPendingCache = new HashMap<String,Map<String,PendingOp>>();
-    Map<String,MpnStatusListener> mpnListeners = new HashMap<String,MpnStatusListener>();
+    
+    private static final long MPN_CACHE_TTL = 15*60*1000;
+    
+    private MpnCacheStore mpnStore = null; // do not get/set this outside the eventsThread
+    private Map<String,Set<String>> persistedMpns = null; // do not get/set this outside the eventsThread
+    private long mpnCacheTimestamp = 0; // do not get/set this outside the eventsThread
+    private MpnOpJournal mpnJournal = null; // do not get/set this outside the eventsThread
     
     
     private AtomicBoolean expectingConnected = new AtomicBoolean(false);
@@ -98,118 +106,367 @@ public class LightstreamerClient {
     
     private boolean connected = false; // do not get/set this outside the eventsThread
     private boolean mpnStatusRetrieved = false; // do not get/set this outside the eventsThread
+    private boolean throttled = false; // do not get/set this outside the eventsThread
     
     final private ExecutorService eventsThread = Executors.newSingleThreadExecutor();
-        //SubscriptionThread ConnectionThread ConnectionEvent retrieveMpnStatus MpnSubscriptionThread enablePN
+        //SubscriptionCoalescer ConnectionThread ConnectionEvent ThrottleThread retrieveMpnStatus MpnSubscriptionThread enablePN
+    
+    final private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        //ReconnectScheduler SubscriptionCoalescer linger
+    
+    private static final long RECONNECT_MIN_DELAY = 1000;
+    private static final long RECONNECT_MAX_DELAY = 60000;
+    
+    private static final long COALESCING_WINDOW = 100;
+    
+    private static final int MPN_INQUIRY_MAX_IN_FLIGHT = 4;
+    
+    private static final long DEFAULT_LINGER = 5000;
+    
+    private long lingerTime = DEFAULT_LINGER; // guarded by this
+    private double lingerBandwidth = 0; // guarded by this
+    private Object lingerToken = null; // guarded by this
+    private ScheduledFuture<?> lingerFuture = null; // guarded by this
+    
+    final private ReconnectScheduler reconnectScheduler = new ReconnectScheduler(timer, eventsThread, RECONNECT_MIN_DELAY, RECONNECT_MAX_DELAY);
+    
+    final private SubscriptionCoalescer subscriptionCoalescer = new SubscriptionCoalescer(timer, eventsThread, new CoalescedSubscriptionTarget(), COALESCING_WINDOW);
+    
+    final private ResubscriptionPipeline resubscriptionPipeline = new ResubscriptionPipeline(new ResubscriptionTarget());
+    
+    /*
+     * LSClient batches the next n requests whatever thread issues them: a
+     * batch owns the client (write lock) until all of its requests completed,
+     * so that no other request (but open/closeConnection) can end up in, or
+     * close, someone else's batch; other requests share it (read lock) and
+     * run concurrently
+     */
+    final private ReentrantReadWriteLock requestGate = new ReentrantReadWriteLock(true);
+    
+    final private MpnStatusInquirer mpnStatusInquirer = new MpnStatusInquirer(new MpnStatusTarget(), MPN_INQUIRY_MAX_IN_FLIGHT);
     
     final private ConnectionInfo cInfo = new ConnectionInfo();
-    final private LSClient client = new LSClient();
+    final private PushTransport client;
 
     private ClientListener currentListener = null;
     
-    private StatusChangeListener statusListener;
-
-    private int status;
+    private volatile StatusChangeListener statusListener;
 
-    private final AtomicInteger connId = new AtomicInteger(0);
+    private final ConnectionState state = new ConnectionState();
+    
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
     
     public int getStatus() {
-        return status;
+        return state.getStatus();
     }
 
     private void setStatus(int status, int connId) {
-        if (connId != this.connId.get()) {
-            //this means that this event is from an old connection
+        if (!state.moveTo(connId,status)) {
+            //old connection, repeated status or nonsense transition
             return;
         }
-        
-        this.status = status;
-        Log.i(TAG,connId + ": " + statusToString(this.status)); 
-        if (this.statusListener != null) {
-            this.statusListener.onStatusChange(this.status);
+        this.onStatusChanged(status,connId);
+    }
+    
+    /*
+     * the listener may be called concurrently and out of order by different
+     * threads; it should use getStatus to find out the current status
+     */
+    private void onStatusChanged(int status, int connId) {
+        metrics.onStatus(status);
+        Logger.i(TAG,connId + ": " + statusToString(status)); 
+        StatusChangeListener listener = this.statusListener;
+        if (listener != null) {
+            listener.onStatusChange(status);
         }
     }
 
     public LightstreamerClient() {
+        this(new LSClientTransport());
+    }
+    
+    /*
+     * e.g. a FakePushTransport instead of a real server
+     */
+    public LightstreamerClient(PushTransport transport) {
+         this.client = transport;
          this.cInfo.adapter = "DEMO";
     }
     
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+    
     public void setServer(String pushServerUrl) {
         this.cInfo.pushServerUrl = pushServerUrl;
     }
     
+    /*
+     * the mpn cache is persisted to the given file: on a cold start the persisted
+     * triggers are notified to the listeners before the server can be asked, and
+     * if they were synced within MPN_CACHE_TTL the server is not asked at all
+     * (the factory rebuilds their MpnInfo)
+     */
+    public void setMpnCacheFile(final File file, final MpnInfoFactory factory) {
+        eventsThread.execute(new Runnable() {
+            public void run() {
+                mpnStore = new MpnCacheStore(file, MPN_CACHE_TTL);
+                if (mpnCacheTimestamp == 0) {
+                    persistedMpns = mpnStore.load();
+                    seedMpnCache(factory);
+                }
+            }
+        });
+    }
+    
+    /*
+     * the persisted triggers become the cache, as fresh as their last sync;
+     * all or nothing
+     */
+    private void seedMpnCache(MpnInfoFactory factory) { //from eventsThread
+        if (persistedMpns == null || !mpnCache.isEmpty()) {
+            return;
+        }
+        List<MpnInfo> infos = new ArrayList<MpnInfo>();
+        for (Map.Entry<String,Set<String>> persisted : persistedMpns.entrySet()) {
+            for (String trigger : persisted.getValue()) {
+                MpnInfo info = factory.build(persisted.getKey(), trigger);
+                if (info == null) {
+                    return;
+                }
+                infos.add(info);
+            }
+        }
+        for (MpnInfo info : infos) {
+            addToMpnCache(info);
+        }
+        mpnCacheTimestamp = mpnStore.getLoadedTimestamp();
+        Logger.d(TAG_MPN,"MPN cache restored, synced " + (System.currentTimeMillis() - mpnCacheTimestamp) + "ms ago");
+    }
+    
+    /*
+     * pending mpn operations are journaled to the given file so that they survive
+     * the process; the factory rebuilds the MpnInfo of the journaled operations
+     */
+    public void setMpnJournal(final File file, final MpnInfoFactory factory) {
+        eventsThread.execute(new Runnable() {
+            public void run() {
+                mpnJournal = new MpnOpJournal(file);
+                Map<String,MpnOpJournal.Op> journaled = mpnJournal.open();
+                
+                //operations requested before the journal was opened win
+                for (Map<String,PendingOp> pendingForKey : mpnPendingCache.values()) {
+                    for (PendingOp op : pendingForKey.values()) {
+                        journalPendingOp(op);
+                    }
+                }
+                
+                for (MpnOpJournal.Op op : journaled.values()) {
+                    Map<String,PendingOp> pendingForKey = mpnPendingCache.get(op.group);
+                    if (pendingForKey != null && pendingForKey.containsKey(op.trigger)) {
+                        continue;
+                    }
+                    MpnInfo info = factory.build(op.group, op.trigger);
+                    if (info == null) {
+                        continue;
+                    }
+                    Logger.d(TAG_MPN,"Restoring pending MPN operation for " + op.group + " -> " + op.trigger);
+                    addPendingOp(new PendingOp(info,op.activate));
+                }
+            }
+        });
+    }
+    
     public void setListener(StatusChangeListener statusListener) {
         this.statusListener = statusListener;
     }
     
+    /*
+     * on a paused stop the session is kept alive for lingerTime ms (0 to close it
+     * at once), limited to maxBandwidth kbps if positive; a start within that
+     * time just keeps using it
+     */
+    public synchronized void setLinger(long lingerTime, double maxBandwidth) {
+        this.lingerTime = lingerTime;
+        this.lingerBandwidth = maxBandwidth;
+    }
+    
     public synchronized void start() {
-        Log.d(TAG,"Connection enabled");
+        Logger.d(TAG,"Connection enabled");
+        if (this.cancelLinger()) {
+            //expectingConnected was never reset: nothing to reconnect
+            Logger.d(TAG,"Back within the linger time, session kept");
+            metrics.onAvoidedReconnection();
+            eventsThread.execute(new ThrottleThread(0));
+            return;
+        }
         if (expectingConnected.compareAndSet(false,true)) {
-            this.startConnectionThread(false);
+            this.startConnectionThread();
         }
     }
     
     public synchronized void stop(boolean applyPause) {
-        Log.d(TAG,"Connection disabled");
+        Logger.d(TAG,"Connection disabled");
+        if (applyPause && lingerTime > 0) {
+            if (expectingConnected.get() && lingerToken == null) {
+                final Object token = new Object();
+                lingerToken = token;
+                lingerFuture = timer.schedule(new Runnable() {
+                    public void run() {
+                        lingerExpired(token);
+                    }
+                }, lingerTime, TimeUnit.MILLISECONDS);
+                Logger.d(TAG,"Lingering for " + lingerTime + "ms");
+                if (lingerBandwidth > 0) {
+                    eventsThread.execute(new ThrottleThread(lingerBandwidth));
+                }
+            }
+            return;
+        }
+        
+        this.cancelLinger();
         if (expectingConnected.compareAndSet(true,false)) {
-            this.startConnectionThread(applyPause);
+            this.startConnectionThread();
         }
     }    
     
-    public synchronized void addSubscription(Subscription sub) {
-        eventsThread.execute(new SubscriptionThread(sub,true));
+    private synchronized void lingerExpired(Object token) {
+        if (token != lingerToken) {
+            //cancelled in the meanwhile
+            return;
+        }
+        lingerToken = null;
+        lingerFuture = null;
+        Logger.d(TAG,"Linger time expired");
+        if (expectingConnected.compareAndSet(true,false)) {
+            this.startConnectionThread();
+        }
     }
-    public synchronized void removeSubscription(Subscription sub) {
-        eventsThread.execute(new SubscriptionThread(sub,false));
+    
+    private synchronized boolean cancelLinger() {
+        if (lingerToken == null) {
+            return false;
+        }
+        //if the task is already running lingerExpired will find a different token
+        lingerFuture.cancel(false);
+        lingerToken = null;
+        lingerFuture = null;
+        return true;
+    }
+    
+    public void addSubscription(Subscription sub) {
+        subscriptionCoalescer.add(sub);
+    }
+    public void removeSubscription(Subscription sub) {
+        subscriptionCoalescer.remove(sub);
+    }
+    
+    /*
+     * subscribes again with the current table info (e.g. a new max frequency);
+     * the new tables are sent in batches (see ResubscriptionPipeline) and the
+     * old ones are unsubscribed together only once the new ones are in place,
+     * so that there is no gap in the updates
+     */
+    public void refreshSubscriptions(final List<Subscription> subs) {
+        eventsThread.execute(new Runnable() {
+            public void run() {
+                subscriptionCoalescer.drain();
+                if (!connected || !expectingConnected.get()) {
+                    //the next session will use the new info anyway
+                    return;
+                }
+                final int connId = state.getConnId();
+                final Map<Subscription,SubscribedTableKey> oldKeys = new IdentityHashMap<Subscription,SubscribedTableKey>();
+                List<Subscription> toRefresh = new ArrayList<Subscription>(subs.size());
+                for (Subscription sub : subs) {
+                    SubscribedTableKey oldKey = subscriptions.getKey(sub, connId);
+                    if (oldKey == null) {
+                        //not subscribed on this session (yet)
+                        continue;
+                    }
+                    oldKeys.put(sub, oldKey);
+                    toRefresh.add(sub);
+                }
+                resubscriptionPipeline.subscribe(connId, toRefresh, new ResubscriptionPipeline.Completion() {
+                    @Override
+                    public void onCompleted(final int connId, final List<Subscription> subscribed) {
+                        eventsThread.execute(new Runnable() {
+                            public void run() {
+                                if (connId != state.getConnId()) {
+                                    //the old tables went with their session
+                                    return;
+                                }
+                                //those that failed keep the old table
+                                List<SubscribedTableKey> keys = new ArrayList<SubscribedTableKey>(subscribed.size());
+                                for (Subscription sub : subscribed) {
+                                    keys.add(oldKeys.get(sub));
+                                }
+                                Logger.d(TAG_SUB,"Refreshed " + keys.size() + "/" + oldKeys.size() + " subscriptions");
+                                unsubscribeTables(keys);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+    
+    /*
+     * number of subscription round trips saved by coalescing add/remove requests
+     */
+    public long getSavedSubscriptionRoundTrips() {
+        return subscriptionCoalescer.getSavedRoundTrips();
     }
         
-    private void startConnectionThread(boolean wait) {
-        eventsThread.execute(new ConnectionThread(wait));
+    private void startConnectionThread() {
+        eventsThread.execute(new ConnectionThread());
     }
     
     //ClientListener calls it through eventsThread
     private void changeStatus(int connId, boolean connected, int status) {
-        if (connId != this.connId.get()) {
+        if (connId != state.getConnId()) {
             //this means that this event is from an old connection
             return;
         }
         
         this.connected = connected;
         
-        if (connected != expectingConnected.get()) {
-            this.startConnectionThread(false);
+        if (!connected && expectingConnected.get()) {
+            //the session was lost: the next attempt waits as a failed one would,
+            //so that the clients dropped together don't come back together
+            setStatus(WAITING,connId);
+            long delay = reconnectScheduler.schedule(new ConnectionThread());
+            Logger.d(TAG,"Session lost, next connection attempt in " + delay + "ms");
+        } else if (connected != expectingConnected.get()) {
+            this.startConnectionThread();
         }
     }
     
     private class ConnectionThread implements Runnable { 
         
-        boolean wait = false;
-        
-        public ConnectionThread(boolean wait) {
-            this.wait = wait;
-        }
-
         public void run() { //called from the eventsThread
             //expectingConnected can be changed by outside events
             
-            if(this.wait) {
-                //waits to see if the user/app changes its mind
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e1) {
-                }
+            //we're handling the connection status now, a scheduled retry is not needed anymore
+            boolean wasWaiting = reconnectScheduler.cancel();
+            if (wasWaiting && !connected && !expectingConnected.get()) {
+                setStatus(DISCONNECTED,state.getConnId());
             }
             
             while(connected != expectingConnected.get()) { 
                 
                 if (!connected) {
-                    connId.incrementAndGet(); //this is the only increment
-                    setStatus(CONNECTING,connId.get());
+                    int newConnId = state.newConnection(); //this is the only increment
+                    onStatusChanged(CONNECTING,newConnId);
                     mpnStatusRetrieved = false;
+                    throttled = false;
+                    //pending requests will be part of the resubscription batch
+                    subscriptionCoalescer.drain();
                     try {
-                        currentListener = new ClientListener(connId.get());
+                        currentListener = new ClientListener(newConnId);
+                        metrics.onConnecting(newConnId);
                         client.openConnection(cInfo, currentListener);
-                        Log.d(TAG,"Connecting success");
+                        Logger.d(TAG,"Connecting success");
                         connected = true;
                         
                         resubscribeAll();
@@ -217,25 +474,26 @@ public class LightstreamerClient {
                         handlePendingMpnOps();
                         
                     } catch (PushServerException e) {
-                        Log.d(TAG,"Connection failed: " + e.getErrorCode() + ": " + e.getMessage());
+                        Logger.d(TAG,"Connection failed: " + e.getErrorCode() + ": " + e.getMessage());
                     } catch (PushUserException e) {
-                        Log.d(TAG,"Connection refused: " + e.getErrorCode() + ": " + e.getMessage());
+                        Logger.d(TAG,"Connection refused: " + e.getErrorCode() + ": " + e.getMessage());
                     } catch (PushConnException e) {
-                        Log.d(TAG,"Connection problems: " + e.getMessage());
+                        Logger.d(TAG,"Connection problems: " + e.getMessage());
                     }
                     
                     if (!connected) {
-                        try {
-                            setStatus(WAITING,connId.get());
-                            Thread.sleep(5000);
-                        } catch (InterruptedException e) {
-                        }
+                        //do not block the eventsThread, subscriptions and mpn requests must keep flowing
+                        setStatus(WAITING,newConnId);
+                        long delay = reconnectScheduler.schedule(new ConnectionThread());
+                        Logger.d(TAG,"Next connection attempt in " + delay + "ms");
+                        return;
                     }
                     
                 } else {
-                    Log.v(TAG,"Disconnecting");
+                    Logger.v(TAG,"Disconnecting");
                     client.closeConnection();
-                    setStatus(DISCONNECTED,connId.get());
+                    metrics.onSessionClosed(state.getConnId());
+                    setStatus(DISCONNECTED,state.getConnId());
                     currentListener = null;
                     connected = false;
                 }
@@ -244,6 +502,47 @@ public class LightstreamerClient {
         }
     }
     
+    /*
+     * limits the bandwidth of the current session (0 removes the limit)
+     */
+    private class ThrottleThread implements Runnable {
+        
+        private final double maxBandwidth;
+        
+        public ThrottleThread(double maxBandwidth) {
+            this.maxBandwidth = maxBandwidth;
+        }
+
+        @Override
+        public void run() {
+            boolean throttle = maxBandwidth > 0;
+            if (!connected || throttled == throttle) {
+                //a new session starts unlimited
+                return;
+            }
+            
+            ConnectionConstraints constraints = new ConnectionConstraints();
+            if (throttle) {
+                constraints.setMaxBandwidth(maxBandwidth);
+            }
+            requestGate.readLock().lock();
+            try {
+                client.changeConstraints(constraints);
+                throttled = throttle;
+                Logger.d(TAG,throttle ? "Bandwidth limited to " + maxBandwidth + "kbps" : "Bandwidth limit removed");
+            } catch (PushConnException e) {
+                Logger.d(TAG,"Connection problems: " + e.getMessage());
+            } catch (PushServerException e) {
+                Logger.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
+            } catch (PushUserException e) {
+                Logger.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
+            } finally {
+                requestGate.readLock().unlock();
+            }
+        }
+        
+    }
+    
     private class ConnectionEvent implements Runnable {
 
         private final int connId;
@@ -275,7 +574,7 @@ public class LightstreamerClient {
         
         @Override
         public void onActivityWarning(boolean warn) {
-            Log.d(TAG,connId + " onActivityWarning " + warn);
+            Logger.d(TAG,connId + " onActivityWarning " + warn);
             if (warn) {
                 setStatus(STALLED,this.connId);
                 eventsThread.execute(new ConnectionEvent(this.connId,true,STALLED));
@@ -288,49 +587,53 @@ public class LightstreamerClient {
 
         @Override
         public void onClose() {
-            Log.d(TAG,connId + " onClose");
+            Logger.d(TAG,connId + " onClose");
+            metrics.onSessionClosed(this.connId);
             setStatus(DISCONNECTED,this.connId);
             eventsThread.execute(new ConnectionEvent(this.connId,false,DISCONNECTED));
         }
 
         @Override
         public void onConnectionEstablished() {
-            Log.d(TAG,connId + " onConnectionEstablished");
+            Logger.d(TAG,connId + " onConnectionEstablished");
         }
 
         @Override
         public void onDataError(PushServerException pse) {
-            Log.d(TAG,connId + " onDataError: " + pse.getErrorCode() + " -> " + pse.getMessage());
+            Logger.d(TAG,connId + " onDataError: " + pse.getErrorCode() + " -> " + pse.getMessage());
         }
 
         @Override
         public void onEnd(int cause) {
-            Log.d(TAG,connId + " onEnd " + cause);
+            Logger.d(TAG,connId + " onEnd " + cause);
         }
 
         @Override
         public void onFailure(PushServerException pse) {
-            Log.d(TAG,connId + " onFailure: " + pse.getErrorCode() + " -> " + pse.getMessage());
+            Logger.d(TAG,connId + " onFailure: " + pse.getErrorCode() + " -> " + pse.getMessage());
         }
 
         @Override
         public void onFailure(PushConnException pce) {
-            Log.d(TAG,connId + " onFailure: " + pce.getMessage());
+            Logger.d(TAG,connId + " onFailure: " + pce.getMessage());
         }
 
         @Override
         public void onNewBytes(long num) {
-            //Log.v(TAG,connId + " onNewBytes " + num);
+            //Logger.v(TAG,connId + " onNewBytes " + num);
+            metrics.onNewBytes(num);
         }
 
         @Override
         public void onSessionStarted(boolean isPolling) {
-            Log.d(TAG,connId + " onSessionStarted; isPolling: " + isPolling);
+            Logger.d(TAG,connId + " onSessionStarted; isPolling: " + isPolling);
             if (isPolling) {
                 this.lastConnectionStatus = POLLING;
             } else {
                 this.lastConnectionStatus = STREAMING;
             }
+            reconnectScheduler.reset();
+            metrics.onSessionStarted(this.connId);
             setStatus(this.lastConnectionStatus,this.connId);
             eventsThread.execute(new ConnectionEvent(this.connId,true,this.lastConnectionStatus));
             
@@ -345,139 +648,164 @@ public class LightstreamerClient {
     
     
     private void resubscribeAll() {
-        if (subscriptions.size() == 0) {
-            return;
+        //the pipeline works on a snapshot, subscriptions can be changed by the eventsThread in the meanwhile
+        resubscriptionPipeline.resubscribe(state.getConnId(), subscriptions.snapshot());
+    }
+    
+    private class ResubscriptionTarget implements ResubscriptionPipeline.Target {
+
+        @Override
+        public boolean isCurrentSession(int connId) {
+            return connId == state.getConnId();
         }
-        
-        Log.i(TAG_SUB,"Resubscribing " + subscriptions.size() + " subscriptions");
-        
-        ExecutorService tmpExecutor = Executors.newFixedThreadPool(subscriptions.size());
-        
-        //start batch
-        try {
-            client.batchRequests(subscriptions.size());
 
-        } catch (SubscrException e) {
-            //connection is closed, exit
-            return;
+        @Override
+        public boolean openBatch(int size) {
+            requestGate.writeLock().lock();
+            try {
+                client.batchRequests(size);
+                return true;
+            } catch (SubscrException e) {
+                requestGate.writeLock().unlock();
+                return false;
+            }
         }
-        
-        for (Subscription sub : subscriptions) {
-            tmpExecutor.execute(new BatchSubscriptionThread(sub));
+
+        @Override
+        public void closeBatch() {
+            client.closeBatch();
         }
-        
-        
-        //close batch
-        client.closeBatch(); //should be useless
-        
-        tmpExecutor.shutdown();
-        try {
-            tmpExecutor.awaitTermination(5, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
+
+        @Override
+        public void releaseBatch() {
+            requestGate.writeLock().unlock();
         }
-    }
-    
-    
-    
-    private class SubscriptionThread implements Runnable {
 
-        Subscription sub;
-        private boolean add;
-        
-        public SubscriptionThread(Subscription sub, boolean add) {
-            this.sub = sub;
-            this.add = add;
+        @Override
+        public boolean subscribe(Subscription sub) {
+            return doSubscription(sub);
         }
         
+    }
+    
+    private class CoalescedSubscriptionTarget implements SubscriptionCoalescer.Target {
+
         @Override
-        public void run() {
+        public void apply(List<Subscription> toAdd, List<Subscription> toRemove) { //called from the eventsThread
+            int noops = 0;
             
-            if (subscriptions.contains(sub)) {
-                if (this.add) {
-                    //already contained, exit now
-                    Log.d(TAG_SUB,"Can't add subscription: Subscription already in: " + sub);
-                    return;
-                }
-                
-                Log.i(TAG_SUB,"Removing subscription " + sub);
-                subscriptions.remove(sub);
-                String key = sub.getTableInfo().getGroup();
-                mpnListeners.remove(key);
-                
-            } else {
-                if (!this.add) {
-                    //already removed, exit now
-                    Log.d(TAG_SUB,"Can't remove subscription: Subscription not in: " + sub);
-                    return;
+            List<SubscriptionRegistry.Entry> removed = new ArrayList<SubscriptionRegistry.Entry>(toRemove.size());
+            for (Subscription sub : toRemove) {
+                SubscriptionRegistry.Entry entry = subscriptions.remove(sub);
+                if (entry == null) {
+                    //already removed
+                    Logger.d(TAG_SUB,"Can't remove subscription: Subscription not in: " + sub);
+                    noops++;
+                    continue;
                 }
-                Log.i(TAG_SUB,"Adding subscription " + sub);
-                subscriptions.add(sub);
-                
-                MpnStatusListener listener = sub.getMpnStatusListener();
-                if (listener != null)  {
-                    String key = sub.getTableInfo().getGroup();
-                    mpnListeners.put(key,listener);
-                }
-                
+                Logger.i(TAG_SUB,"Removing subscription " + sub);
+                metrics.forget(sub);
+                removed.add(entry);
             }
             
+            List<Subscription> added = new ArrayList<Subscription>(toAdd.size());
+            for (Subscription sub : toAdd) {
+                if (!subscriptions.add(sub)) {
+                    //already contained
+                    Logger.d(TAG_SUB,"Can't add subscription: Subscription already in: " + sub);
+                    noops++;
+                    continue;
+                }
+                Logger.i(TAG_SUB,"Adding subscription " + sub);
+                added.add(sub);
+            }
             
+            int merged = 0;
             if (connected && expectingConnected.get()) {
-                if (this.add) {
-                    doSubscription(sub);
-                } else {
-                    doUnsubscription(sub);
+                if (removed.size() > 0) {
+                    doUnsubscription(removed);
+                    merged += removed.size() - 1;
                 }
+                merged += added.size() - resubscriptionPipeline.subscribe(state.getConnId(), added);
             }
             
+            subscriptionCoalescer.onAvoidedRoundTrips(noops + merged);
         }
         
     }
     
-    private class BatchSubscriptionThread implements Runnable {
+    private boolean doSubscription(Subscription sub) { //the caller holds the requestGate (batch or shared)
         
-        Subscription sub;
-        
-        public BatchSubscriptionThread(Subscription sub) {
-            this.sub = sub;
-        }
+        Logger.d(TAG_SUB,"Subscribing " + sub);
         
-        @Override
-        public void run() {
-            doSubscription(sub);
+        //the subscription might be removed (and even added again) while we wait for the server
+        long generation = subscriptions.getGeneration(sub);
+        if (generation == SubscriptionRegistry.NO_GENERATION) {
+            Logger.d(TAG_SUB,"Subscription already removed: " + sub);
+            return false;
         }
-        
-    }
-    
-    private void doSubscription(Subscription sub) {
-        
-        Log.d(TAG_SUB,"Subscribing " + sub);
+        int currConnId = state.getConnId();
         
         try {
-            SubscribedTableKey key = client.subscribeTable(sub.getTableInfo(), sub.getTableListener(), false);
+            SubscribedTableKey key = client.subscribeTable(sub.getTableInfo(), metrics.meter(sub), false);
+            if (!subscriptions.bind(sub, generation, currConnId, key)) {
+                if (currConnId == state.getConnId()) {
+                    Logger.d(TAG_SUB,"Subscription removed while subscribing: " + sub);
+                    client.unsubscribeTable(key);
+                }
+                return false;
+            }
             sub.setTableKey(key);
+            return true;
         } catch (SubscrException e) {
-            Log.d(TAG_SUB,"Connection was closed: " + e.getMessage());
+            Logger.d(TAG_SUB,"Connection was closed: " + e.getMessage());
         } catch (PushServerException e) {
-            Log.d(TAG_SUB,"Subscription failed: " + e.getErrorCode() + ": " + e.getMessage());
+            Logger.d(TAG_SUB,"Subscription failed: " + e.getErrorCode() + ": " + e.getMessage());
         } catch (PushUserException e) {
-            Log.d(TAG_SUB,"Subscription refused: " + e.getErrorCode() + ": " + e.getMessage());
+            Logger.d(TAG_SUB,"Subscription refused: " + e.getErrorCode() + ": " + e.getMessage());
         } catch (PushConnException e) {
-            Log.d(TAG_SUB,"Connection problems: " + e.getMessage());
+            Logger.d(TAG_SUB,"Connection problems: " + e.getMessage());
         }
+        return false;
     }
-    private void doUnsubscription(Subscription sub) {
+    private void doUnsubscription(List<SubscriptionRegistry.Entry> entries) {
         
-        Log.d(TAG_SUB,"Unsubscribing " + sub);
+        //keys obtained on older sessions are meaningless
+        int currConnId = state.getConnId();
+        List<SubscribedTableKey> keys = new ArrayList<SubscribedTableKey>(entries.size());
+        for (SubscriptionRegistry.Entry entry : entries) {
+            SubscribedTableKey key = entry.getKey(currConnId);
+            if (key == null) {
+                Logger.d(TAG_SUB,"Not subscribed on this session: " + entry.getSubscription());
+            } else {
+                Logger.d(TAG_SUB,"Unsubscribing " + entry.getSubscription());
+                keys.add(key);
+            }
+        }
         
+        this.unsubscribeTables(keys);
+    }
+    
+    private void unsubscribeTables(List<SubscribedTableKey> keys) { //keys of the current session
+        if (keys.isEmpty()) {
+            return;
+        }
+        
+        requestGate.readLock().lock();
         try {
-            client.unsubscribeTable(sub.getTableKey());
+            if (keys.size() == 1) {
+                client.unsubscribeTable(keys.get(0));
+            } else {
+                client.unsubscribeTables(keys.toArray(new SubscribedTableKey[keys.size()]));
+            }
         } catch (SubscrException e) {
-            Log.d(TAG_SUB,"Connection was closed: " + e.getMessage());
+            Logger.d(TAG_SUB,"Connection was closed: " + e.getMessage());
         } catch (PushServerException e) {
-            Log.wtf(TAG_SUB,"Unsubscription failed: " + e.getErrorCode() + ": " + e.getMessage());
+            Logger.wtf(TAG_SUB,"Unsubscription failed: " + e.getErrorCode() + ": " + e.getMessage());
         } catch (PushConnException e) {
-            Log.d(TAG_SUB,"Unubscription failed: " + e.getMessage());
+            Logger.d(TAG_SUB,"Unubscription failed: " + e.getMessage());
+        } finally {
+            requestGate.readLock().unlock();
         }
     }
     
@@ -487,7 +815,7 @@ public class LightstreamerClient {
     public void enablePN(boolean enabled) {
         this.pmEnabled.set(enabled);
         if (enabled) {
-            Log.i(TAG_MPN,"Enabling Mpn");
+            Logger.i(TAG_MPN,"Enabling Mpn");
             eventsThread.execute(new Runnable() {
                 public void run() {
                     if (connected && expectingConnected.get()) {
@@ -524,40 +852,53 @@ public class LightstreamerClient {
             return;
         }
         
-        
+        if (mpnCacheTimestamp != 0 && System.currentTimeMillis() - mpnCacheTimestamp < MPN_CACHE_TTL) {
+            //mpn subscriptions are not bound to the session, what we know is still good
+            Logger.d(TAG_MPN,"MPN cache is fresh, skip retrieval");
+            mpnStatusRetrieved = true;
+            //a restored cache holds the persisted triggers already
+            persistedMpns = null;
+            return;
+        }
         
         //deactivate triggered subscriptions
-        Log.d(TAG_MPN,"Deactivate triggered mpn subscriptions");
+        Logger.d(TAG_MPN,"Deactivate triggered mpn subscriptions");
+        requestGate.readLock().lock();
         try {
             this.client.deactivateMpn(MpnStatus.Triggered);
         } catch (SubscrException e) {
-            Log.d(TAG_MPN,"Connection problems: " + e.getMessage());
+            Logger.d(TAG_MPN,"Connection problems: " + e.getMessage());
         } catch (PushServerException e) {
-            Log.d(TAG_MPN,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
+            Logger.d(TAG_MPN,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
         } catch (PushUserException e) {
-             Log.d(TAG_MPN,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
+             Logger.d(TAG_MPN,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
         } catch (PushConnException e) {
-            Log.d(TAG_MPN,"Connection problems: " + e.getMessage());
+            Logger.d(TAG_MPN,"Connection problems: " + e.getMessage());
+        } finally {
+            requestGate.readLock().unlock();
         }
         
         //get remaining subscriptions (since I've just cleared Triggered subscriptions I assume these are all Active)
-        Log.d(TAG_MPN,"Retrieving MPN subscription statuses");
+        Logger.d(TAG_MPN,"Retrieving MPN subscription statuses");
         List<MpnInfo>mpnList = null;
+        requestGate.readLock().lock();
         try {
             mpnList = this.client.inquireAllMpn();
             mpnStatusRetrieved = true;
         } catch (SubscrException e) {
-            Log.d(TAG_MPN,"Connection problems: " + e.getMessage());
+            Logger.d(TAG_MPN,"Connection problems: " + e.getMessage());
         } catch (PushServerException e) {
-            Log.d(TAG_MPN,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
+            Logger.d(TAG_MPN,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
         } catch (PushUserException e) {
              if (e.getErrorCode() == 45) {
                  mpnStatusRetrieved = true;
              } else {
-                 Log.d(TAG_MPN,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
+                 Logger.d(TAG_MPN,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
              }
         } catch (PushConnException e) {
-            Log.d(TAG_MPN,"Connection problems: " + e.getMessage());
+            Logger.d(TAG_MPN,"Connection problems: " + e.getMessage());
+        } finally {
+            requestGate.readLock().unlock();
         }
             
         //populate active subscriptions cache
@@ -572,12 +913,73 @@ public class LightstreamerClient {
                  
                  addToMpnCache(info);
                  
-                 MpnStatusListener listener = mpnListeners.get(key);
+                 MpnStatusListener listener = subscriptions.getMpnStatusListener(key);
                  if (listener != null) {
                      notifyMpnStatusListener(true,trigger,listener);
                  }
              }
         }
+        
+        if (mpnStatusRetrieved) {
+            mpnCacheTimestamp = System.currentTimeMillis();
+            reconcilePersistedMpns();
+            persistMpnCache();
+        }
+    }
+    
+    /*
+     * listeners were told about the persisted triggers: those that the server
+     * does not know anymore must be removed
+     */
+    private void reconcilePersistedMpns() { //from eventsThread
+        if (persistedMpns == null) {
+            return;
+        }
+        
+        for (Map.Entry<String,Set<String>> persisted : persistedMpns.entrySet()) {
+            String key = persisted.getKey();
+            Map<String,MpnInfo> active = mpnCache.get(key);
+            
+            Map<String,Boolean> statuses = new HashMap<String,Boolean>();
+            for (String trigger : persisted.getValue()) {
+                if (active == null || !active.containsKey(trigger)) {
+                    statuses.put(trigger, false);
+                }
+            }
+            
+            MpnStatusListener listener = subscriptions.getMpnStatusListener(key);
+            if (listener != null && !statuses.isEmpty()) {
+                Logger.d(TAG_MPN,"Persisted MPN cache mismatch for " + key);
+                notifyMpnStatusListener(statuses, listener);
+            }
+        }
+        persistedMpns = null;
+    }
+    
+    /*
+     * before the server is asked, the listener is notified with the persisted status (if any)
+     */
+    private void notifyPersistedMpnStatus(String key) { //from eventsThread
+        if (mpnStatusRetrieved || persistedMpns == null) {
+            return;
+        }
+        Set<String> triggers = persistedMpns.get(key);
+        MpnStatusListener listener = subscriptions.getMpnStatusListener(key);
+        if (triggers == null || listener == null) {
+            return;
+        }
+        
+        Map<String,Boolean> statuses = new HashMap<String,Boolean>();
+        for (String trigger : triggers) {
+            statuses.put(trigger, true);
+        }
+        notifyMpnStatusListener(statuses, listener);
+    }
+    
+    private void persistMpnCache() { //from eventsThread
+        if (mpnStore != null) {
+            mpnStore.save(mpnCache, mpnCacheTimestamp);
+        }
     }
     
     private void addToMpnCache(MpnInfo info) {
@@ -617,45 +1019,66 @@ public class LightstreamerClient {
     }
     
     private void handlePendingMpnOps() { //from eventsThread
-        Log.d(TAG_MPN,"Handle pending MPN subscriptions");
+        Logger.d(TAG_MPN,"Handle pending MPN subscriptions");
+        
+        //the cache holds only the last operation for each key/trigger: replay them all in one pass
+        List<PendingOp> toHandle = new ArrayList<PendingOp>();
+        for (Map<String,PendingOp> pendingForKey : mpnPendingCache.values()) {
+            toHandle.addAll(pendingForKey.values());
+        }
         
-        Iterator<Entry<String, Map<String, PendingOp>>> pendings = mpnPendingCache.entrySet().iterator();
-        while (pendings.hasNext()) {
+        for (PendingOp op : toHandle) {
             
-            Map<String, PendingOp> entry = pendings.next().getValue();
-            Iterator<Entry<String, PendingOp>> pendingsForKey = entry.entrySet().iterator();
-            while (pendingsForKey.hasNext()) {
-                
-                if (!connected || !expectingConnected.get()) {
-                    //check before each request, just in case
-                    return;
+            if (!connected || !expectingConnected.get()) {
+                //check before each request, just in case
+                return;
+            }
+            
+            try {
+                boolean success = mpnSubscriptionActivation(op);
+                if (success) {
+                    removePendingOp(op);
                 }
                 
-                PendingOp toHandle = pendingsForKey.next().getValue();
-                
-                try {
-                    boolean success = mpnSubscriptionActivation(toHandle);
-                    if (success) {
-                        pendingsForKey.remove();
-                    }
-                    
-                } catch (SubscrException e) {
-                    Log.d(TAG,"Connection problems: " + e.getMessage());
-                } catch (PushServerException e) {
-                    Log.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
-                } catch (PushUserException e) {
-                     Log.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
-                } catch (PushConnException e) {
-                    Log.d(TAG,"Connection problems: " + e.getMessage());
-                }      
-                
-            }
+            } catch (SubscrException e) {
+                Logger.d(TAG,"Connection problems: " + e.getMessage());
+            } catch (PushServerException e) {
+                Logger.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
+            } catch (PushUserException e) {
+                 Logger.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
+            } catch (PushConnException e) {
+                Logger.d(TAG,"Connection problems: " + e.getMessage());
+            }      
             
-            if (entry.isEmpty()) {
-                pendings.remove();
+        }
+    }
+    
+    private void addPendingOp(PendingOp op) { //from eventsThread
+        Map<String,PendingOp> pendingForKey = mpnPendingCache.get(op.key);
+        if (pendingForKey == null) {
+            pendingForKey = new HashMap<String,PendingOp>();
+            mpnPendingCache.put(op.key,pendingForKey);
+        }
+        pendingForKey.put(op.trigger, op);
+        journalPendingOp(op);
+    }
+    
+    private void removePendingOp(PendingOp op) { //from eventsThread
+        Map<String,PendingOp> pendingForKey = mpnPendingCache.get(op.key);
+        if (pendingForKey != null) {
+            pendingForKey.remove(op.trigger);
+            if (pendingForKey.isEmpty()) {
+                mpnPendingCache.remove(op.key);
             }
-            
-            
+        }
+        if (mpnJournal != null) {
+            mpnJournal.clear(op.key, op.trigger);
+        }
+    }
+    
+    private void journalPendingOp(PendingOp op) { //from eventsThread
+        if (mpnJournal != null) {
+            mpnJournal.put(op.key, op.trigger, op.activate);
         }
     }
     
@@ -663,50 +1086,92 @@ public class LightstreamerClient {
         listener.onMpnStatusChanged(activated, trigger);
     }
     
+    private void notifyMpnStatusListener(Map<String,Boolean> statuses, MpnStatusListener listener) { 
+        listener.onMpnStatusesChanged(statuses);
+    }
+    
     /*
-     * checks the cache for key-related mpn subscrioptions then asks the server their status;
-     * suspended/triggered are removed. A notification is sent to the listener
+     * checks the cache for key-related mpn subscrioptions then asks the server their status
+     * (concurrently); results are applied by applyMpnSubscriptionStatus
      */
-    private void retrieveMpnSubscriptionStatus(String key) 
-            throws SubscrException, PushServerException, PushUserException, PushConnException { //from eventsThread 
+    private void retrieveMpnSubscriptionStatus(String key) { //from eventsThread 
         
         if (!mpnStatusRetrieved || !pmEnabled.get()) {
             return;
         }
         
-        Log.d(TAG_MPN,"Checking MPN subscriptions status for " + key);
-        
-        MpnStatusListener listener = mpnListeners.get(key);
-        //if listener is null this makes no much sense, anyway we run it to eventually clear 
+        //even if there is no listener we run it to eventually clear 
         //Suspended/Triggered subscriptions from the local cache
         
         Map <String,MpnInfo> active = mpnCache.get(key);
-        if (active != null) {
-            Iterator<Map.Entry<String,MpnInfo>> entries = active.entrySet().iterator();
-            while (entries.hasNext()) {
-                
-                Map.Entry<String,MpnInfo> entry = entries.next();
-                
-                MpnInfo toCheck = entry.getValue();
-                boolean alive = isMpnSubscriptionAlive(toCheck);
-                if (!alive) {
-                    entries.remove();
-                    if (listener != null) {
-                        notifyMpnStatusListener(false, toCheck.getTriggerExpression(), listener);
-                    }
-                } else if (listener != null) {
-                    notifyMpnStatusListener(true, toCheck.getTriggerExpression(), listener);
-                }
+        if (active != null && !active.isEmpty()) {
+            Logger.d(TAG_MPN,"Checking MPN subscriptions status for " + key + " (" + active.size() + " subscriptions)");
+            mpnStatusInquirer.inquire(state.getConnId(), key, new ArrayList<MpnInfo>(active.values()));
+        }
+    }
+    
+    /*
+     * suspended/triggered subscriptions are removed from the cache in one step, then
+     * a single notification with all the statuses is sent to the listener
+     */
+    private void applyMpnSubscriptionStatus(int connId, String key, Map<MpnInfo,Boolean> results) { //from eventsThread
+        if (connId != state.getConnId()) {
+            //the cache has been rebuilt in the meanwhile
+            return;
+        }
+        
+        boolean changed = false;
+        Map<String,Boolean> statuses = new HashMap<String,Boolean>();
+        for (Map.Entry<MpnInfo,Boolean> result : results.entrySet()) {
+            MpnInfo checked = result.getKey();
+            boolean alive = result.getValue();
+            if (getFromMpnCache(checked) != checked) {
+                //activated/deactivated while we were asking, the result is outdated
+                continue;
+            }
+            if (!alive) {
+                removeFromMpnCache(checked);
+                changed = true;
             }
+            statuses.put(checked.getTriggerExpression(), alive);
+        }
+        
+        if (changed) {
+            persistMpnCache();
+        }
+        
+        MpnStatusListener listener = subscriptions.getMpnStatusListener(key);
+        if (listener != null && !statuses.isEmpty()) {
+            notifyMpnStatusListener(statuses, listener);
+        }
+    }
+    
+    private class MpnStatusTarget implements MpnStatusInquirer.Target {
+
+        @Override
+        public boolean isAlive(MpnInfo info) throws SubscrException,
+                PushServerException, PushUserException, PushConnException {
+            return isMpnSubscriptionAlive(info);
+        }
+
+        @Override
+        public void onStatusRetrieved(final int connId, final String key, final Map<MpnInfo,Boolean> results) {
+            eventsThread.execute(new Runnable() {
+                public void run() {
+                    applyMpnSubscriptionStatus(connId, key, results);
+                }
+            });
         }
+        
     }
     
     private boolean isMpnSubscriptionAlive(MpnInfo toCheck) 
-            throws SubscrException, PushServerException, PushUserException, PushConnException { //from eventsThread 
+            throws SubscrException, PushServerException, PushUserException, PushConnException { //from MpnStatusInquirer 
         
         MpnStatus status = null;
+        requestGate.readLock().lock();
         try {
-            status = client.inquireMpnStatus(toCheck.getMpnKey());
+            status = client.inquireMpnStatus(toCheck);
         } catch (PushUserException e) {
              if (e.getErrorCode() == 45 || e.getErrorCode() == 46) {
                  //not active anymore
@@ -714,7 +1179,9 @@ public class LightstreamerClient {
              } else {
                  throw e;
              }
-        } 
+        } finally {
+            requestGate.readLock().unlock();
+        }
         
         
         //if the current status is not active we can deactivate this subscription
@@ -747,24 +1214,35 @@ public class LightstreamerClient {
         //check if we're already in the desired status
         MpnInfo cachedInfo = getFromMpnCache(op.info);
         if ((cachedInfo!=null) == op.activate) { //this version avoids an extra request to the server
-            Log.d(TAG_MPN,"MPN subscriptions status for " + op.key + "-> " + op.trigger + " already in the desired status");
+            Logger.d(TAG_MPN,"MPN subscriptions status for " + op.key + "-> " + op.trigger + " already in the desired status");
            
         } else {
  
             if (op.activate) {
-                Log.d(TAG_MPN,"Activating MPN subscriptions status for " + op.key + " -> " + op.trigger);
-                client.activateMpn(op.info);
+                Logger.d(TAG_MPN,"Activating MPN subscriptions status for " + op.key + " -> " + op.trigger);
+                requestGate.readLock().lock();
+                try {
+                    client.activateMpn(op.info);
+                } finally {
+                    requestGate.readLock().unlock();
+                }
                 addToMpnCache(op.info);
-                Log.d(TAG_MPN,"MPN subscription activation for " + op.key + " --> " + op.trigger + " OK");
+                Logger.d(TAG_MPN,"MPN subscription activation for " + op.key + " --> " + op.trigger + " OK");
             } else {
-                Log.d(TAG_MPN,"Deactivating MPN subscriptions status for " + op.key + " -> " + op.trigger);
-                client.deactivateMpn(cachedInfo.getMpnKey()); //TODO is it possible 45/46 here?
+                Logger.d(TAG_MPN,"Deactivating MPN subscriptions status for " + op.key + " -> " + op.trigger);
+                requestGate.readLock().lock();
+                try {
+                    client.deactivateMpn(cachedInfo); //TODO is it possible 45/46 here?
+                } finally {
+                    requestGate.readLock().unlock();
+                }
                 removeFromMpnCache(cachedInfo);
-                Log.d(TAG_MPN,"MPN subscription activation/deactivation for " + op.key + " --> " + op.trigger + " OK");
+                Logger.d(TAG_MPN,"MPN subscription activation/deactivation for " + op.key + " --> " + op.trigger + " OK");
             }
+            persistMpnCache();
         }
     
-        MpnStatusListener listener = mpnListeners.get(op.key);
+        MpnStatusListener listener = subscriptions.getMpnStatusListener(op.key);
         if (listener != null) {
             notifyMpnStatusListener(op.activate, op.trigger, listener);
         }
@@ -801,10 +1279,11 @@ public class LightstreamerClient {
 
         @Override
         public void run() {
-            Map<String,PendingOp> pendingForKey = mpnPendingCache.get(pendingOp.key);
-            if (pendingForKey != null) {
-                pendingForKey.remove(pendingOp.trigger);
-            }
+            //listeners are looked up through the subscriptions, apply pending requests first
+            subscriptionCoalescer.drain();
+            
+            //the new operation supersedes the pending one, if any
+            removePendingOp(pendingOp);
             
             if (connected && expectingConnected.get()) {
                try {
@@ -814,24 +1293,20 @@ public class LightstreamerClient {
                     }
                     
                 } catch (SubscrException e) {
-                    Log.d(TAG,"Connection problems: " + e.getMessage());
+                    Logger.d(TAG,"Connection problems: " + e.getMessage());
                 } catch (PushServerException e) {
-                    Log.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
+                    Logger.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
                 } catch (PushUserException e) {
-                     Log.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
+                     Logger.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
                 } catch (PushConnException e) {
-                    Log.d(TAG,"Connection problems: " + e.getMessage());
+                    Logger.d(TAG,"Connection problems: " + e.getMessage());
                 }   
             }
             
-            Log.d(TAG_MPN,"Delaying MPN subscription activation/deactivation for " + pendingOp.key+ " --> " + pendingOp.trigger);
+            Logger.d(TAG_MPN,"Delaying MPN subscription activation/deactivation for " + pendingOp.key+ " --> " + pendingOp.trigger);
             
-            //in case of exception or premature exit the pending op is cached
-            if (pendingForKey == null) {
-                pendingForKey = new HashMap<String,PendingOp>();
-                mpnPendingCache.put(pendingOp.key,pendingForKey);
-            }
-            pendingForKey.put(pendingOp.trigger, pendingOp);
+            //in case of exception or premature exit the pending op is cached (and journaled)
+            addPendingOp(pendingOp);
             
             
         }
@@ -848,21 +1323,16 @@ public class LightstreamerClient {
 
         @Override
         public void run() {
+            //listeners are looked up through the subscriptions, apply pending requests first
+            subscriptionCoalescer.drain();
+            
+            notifyPersistedMpnStatus(key);
+            
             if (!connected || !expectingConnected.get()) {
                 return;
             }
                         
-            try {
-                retrieveMpnSubscriptionStatus(key);
-            } catch (SubscrException e) {
-                Log.d(TAG,"Connection problems: " + e.getMessage());
-            } catch (PushServerException e) {
-                Log.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
-            } catch (PushUserException e) {
-                 Log.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
-            } catch (PushConnException e) {
-                Log.d(TAG,"Connection problems: " + e.getMessage());
-            }
+            retrieveMpnSubscriptionStatus(key);
             
         }
     }
@@ -870,6 +1340,18 @@ public class LightstreamerClient {
     
     public interface MpnStatusListener {
         public void onMpnStatusChanged(boolean activated, String trigger);
+        /*
+         * trigger -> activated for a whole set of subscriptions related to the same key
+         * (null trigger is the subscription without a trigger)
+         */
+        public void onMpnStatusesChanged(Map<String,Boolean> statuses);
+    }
+
+    public interface MpnInfoFactory {
+        /*
+         * rebuilds the MpnInfo for the given group and trigger, null if not possible
+         */
+        public MpnInfo build(String group, String trigger);
     }
 
     public interface LightstreamerClientProxy {
@@ -877,6 +1359,7 @@ public class LightstreamerClient {
         public void stop(boolean applyPause);
         public void addSubscription(Subscription sub);
         public void removeSubscription(Subscription sub);
+        public void refreshSubscriptions(List<Subscription> subs);
         
         public void activateMPN(MpnInfo info);
         public void deactivateMPN(MpnInfo info); 
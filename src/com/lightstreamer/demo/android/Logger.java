@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import android.util.Log;
+
+/*
+ * Where the classes of the LightstreamerClient and of the update path log:
+ * android.util.Log unless another Logger is set, e.g. by the tests and the
+ * benchmarks, as they run on a plain JVM where the android.jar stubs throw.
+ * Same priorities as android.util.Log.
+ */
+abstract class Logger {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ASSERT = 7;
+
+    private static volatile Logger logger = new AndroidLogger();
+
+    public static void setLogger(Logger logger) {
+        Logger.logger = logger;
+    }
+
+    public static void v(String tag, String msg) {
+        logger.println(VERBOSE, tag, msg);
+    }
+
+    public static void d(String tag, String msg) {
+        logger.println(DEBUG, tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        logger.println(INFO, tag, msg);
+    }
+
+    public static void w(String tag, String msg) {
+        logger.println(WARN, tag, msg);
+    }
+
+    /*
+     * something that should never happen
+     */
+    public static void wtf(String tag, String msg) {
+        logger.println(ASSERT, tag, msg);
+    }
+
+    /*
+     * to skip building messages that would not be logged
+     */
+    public static boolean isLoggable(String tag, int priority) {
+        return logger.isEnabled(tag, priority);
+    }
+
+    public abstract void println(int priority, String tag, String msg);
+
+    public abstract boolean isEnabled(String tag, int priority);
+
+    /*
+     * android.util.Log is only touched when the first line is logged
+     */
+    private static class AndroidLogger extends Logger {
+
+        @Override
+        public void println(int priority, String tag, String msg) {
+            if (priority == ASSERT) {
+                Log.wtf(tag, msg);
+            } else {
+                Log.println(priority, tag, msg);
+            }
+        }
+
+        @Override
+        public boolean isEnabled(String tag, int priority) {
+            return Log.isLoggable(tag, priority);
+        }
+    }
+
+}
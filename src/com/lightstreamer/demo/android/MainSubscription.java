@@ -16,11 +16,10 @@
 package com.lightstreamer.demo.android;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
-import android.os.Handler;
-import android.util.Log;
-import android.widget.ListView;
-
+import com.lightstreamer.demo.android.LightstreamerClient.LightstreamerClientProxy;
 import com.lightstreamer.demo.android.LightstreamerClient.MpnStatusListener;
 import com.lightstreamer.ls_client.ExtendedTableInfo;
 import com.lightstreamer.ls_client.HandyTableListener;
@@ -28,94 +27,241 @@ import com.lightstreamer.ls_client.SubscrException;
 import com.lightstreamer.ls_client.SubscribedTableKey;
 import com.lightstreamer.ls_client.UpdateInfo;
 
-class MainSubscription implements Subscription, HandyTableListener {
+/*
+ * The list subscription: each row of the window is subscribed as a table of
+ * its own, so that moving the window only subscribes the rows that enter it
+ * and unsubscribes those that leave it (the coalescer sends them together).
+ * Rows out of the window are dropped. All the row tables share this listener.
+ */
+class MainSubscription implements HandyTableListener {
 
     private static final String TAG = "MainSubscription";
     
-    private SubscribedTableKey key;
-    private ExtendedTableInfo tableInfo;
-   
+    private static final double INITIAL_FREQUENCY = 1;
 
-    private ArrayList<StockForList> list;
+    //updates are dispatched by name: each row table has a single item
+    private final StockCatalog catalog;
+    
+    private final RowSubscription[] rows; // guarded by this, created when entering the window, null out of it
+    private int windowFirst; // guarded by this
+    private int windowLast; // guarded by this
+    private LightstreamerClientProxy lsClient = null; // guarded by this
 
-    private Context context = new Context();
+    private volatile RowDispatcher dispatcher = null;
+    
+    //refilled by each update, see onUpdate
+    private final QuoteUpdate update = new QuoteUpdate(QuoteSchema.LIST);
+    
+    private volatile double maxFrequency = INITIAL_FREQUENCY;
+    private final AtomicLong lostUpdates = new AtomicLong(0);
+    
+    /*
+     * only the first windowSize items are subscribed (all of them if windowSize is 0),
+     * see setWindow
+     */
+    public MainSubscription(StockCatalog catalog, int windowSize) {
+        this.catalog = catalog;
+        this.rows = new RowSubscription[catalog.size()];
+        int last = catalog.size() - 1;
+        this.windowFirst = 0;
+        this.windowLast = windowSize > 0 ? Math.min(windowSize - 1, last) : last;
+    }
     
-    public MainSubscription(ArrayList<StockForList> list) {
-        this.list = list;
-        try {
-            this.tableInfo = new ExtendedTableInfo(StocksFragment.items, "MERGE", StocksFragment.subscriptionFields , true);
-            this.tableInfo.setDataAdapter("QUOTE_ADAPTER");
-            this.tableInfo.setRequestedMaxFrequency(1);
-        } catch (SubscrException e) {
-            Log.wtf(TAG, "I'm pretty sure MERGE is compatible with the snapshot request!");
+    /*
+     * subscribes the rows of the window through lsClient, and the rows that
+     * will enter it until unsubscribe is called
+     */
+    public synchronized void subscribe(LightstreamerClientProxy lsClient) {
+        this.lsClient = lsClient;
+        for (int i = windowFirst; i <= windowLast; i++) {
+            lsClient.addSubscription(this.getRow(i));
         }
     }
     
-    public void changeContext(Handler handler, ListView listView) {
-        this.context.handler = handler;
-        this.context.listView = listView;
+    public synchronized void unsubscribe() {
+        if (lsClient == null) {
+            return;
+        }
+        for (int i = windowFirst; i <= windowLast; i++) {
+            lsClient.removeSubscription(rows[i]);
+        }
+        lsClient = null;
     }
     
-
-    @Override
-    public HandyTableListener getTableListener() {
-        return this;
+    /*
+     * limits the subscription to the items in [first,last]; returns false if
+     * that's already the case. Only the rows entering and leaving the window
+     * are subscribed and unsubscribed
+     */
+    public synchronized boolean setWindow(int first, int last) {
+        if (first == windowFirst && last == windowLast) {
+            return false;
+        }
+        for (int i = windowFirst; i <= windowLast; i++) {
+            if ((i < first || i > last) && rows[i] != null) {
+                if (lsClient != null) {
+                    lsClient.removeSubscription(rows[i]);
+                }
+                rows[i] = null;
+            }
+        }
+        if (lsClient != null) {
+            for (int i = first; i <= last; i++) {
+                if (i < windowFirst || i > windowLast) {
+                    lsClient.addSubscription(this.getRow(i));
+                }
+            }
+        }
+        this.windowFirst = first;
+        this.windowLast = last;
+        return true;
     }
-
-    @Override
-    public SubscribedTableKey getTableKey() {
-        return key;
+    
+    public synchronized int getWindowFirst() {
+        return windowFirst;
     }
-
-    @Override
-    public ExtendedTableInfo getTableInfo() {
-        return this.tableInfo;
+    
+    public synchronized int getWindowLast() {
+        return windowLast;
     }
-
-    @Override
-    public void setTableKey(SubscribedTableKey key) {
-        this.key = key;
+    
+    /*
+     * the rows of the window are subscribed again with the new frequency,
+     * all in one go, see LightstreamerClient.refreshSubscriptions
+     */
+    public synchronized void setMaxFrequency(double maxFrequency) {
+        this.maxFrequency = maxFrequency;
+        for (RowSubscription row : rows) {
+            if (row != null) {
+                row.tableInfo.setRequestedMaxFrequency(maxFrequency);
+            }
+        }
+        if (lsClient != null) {
+            List<Subscription> window = new ArrayList<Subscription>(windowLast - windowFirst + 1);
+            for (int i = windowFirst; i <= windowLast; i++) {
+                window.add(rows[i]);
+            }
+            lsClient.refreshSubscriptions(window);
+        }
+    }
+    
+    public double getMaxFrequency() {
+        return maxFrequency;
     }
+    
+    public long getLostUpdates() {
+        return lostUpdates.get();
+    }
+    
+    /*
+     * null while there's no list to redraw
+     */
+    public void changeDispatcher(RowDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+    
+    private RowSubscription getRow(int position) { // guarded by this
+        if (rows[position] == null) {
+            rows[position] = new RowSubscription(catalog.getName(position));
+        }
+        return rows[position];
+    }
+    
+    private class RowSubscription implements Subscription {
+        
+        private final String item;
+        private final ExtendedTableInfo tableInfo;
+        private SubscribedTableKey key;
+        
+        public RowSubscription(String item) {
+            this.item = item;
+            ExtendedTableInfo tableInfo = null;
+            try {
+                tableInfo = new ExtendedTableInfo(new String[] {item}, "MERGE", QuoteSchema.LIST.getFieldNames() , true);
+                tableInfo.setDataAdapter("QUOTE_ADAPTER");
+                tableInfo.setRequestedMaxFrequency(maxFrequency);
+            } catch (SubscrException e) {
+                Logger.wtf(TAG, "I'm pretty sure MERGE is compatible with the snapshot request!");
+            }
+            this.tableInfo = tableInfo;
+        }
 
+        @Override
+        public HandyTableListener getTableListener() {
+            return MainSubscription.this;
+        }
 
+        @Override
+        public SubscribedTableKey getTableKey() {
+            return key;
+        }
+
+        @Override
+        public ExtendedTableInfo getTableInfo() {
+            return this.tableInfo;
+        }
+
+        @Override
+        public void setTableKey(SubscribedTableKey key) {
+            this.key = key;
+        }
+        
+        @Override
+        public MpnStatusListener getMpnStatusListener() {
+            //not interested
+            return null;
+        }
+        
+        @Override
+        public String toString() {
+            return "row " + item;
+        }
+    }
 
     @Override
-    public void onRawUpdatesLost(int arg0, String arg1, int arg2) {
-        Log.wtf(TAG,"Not expecting lost updates");
+    public void onRawUpdatesLost(int itemPos, String itemName, int lostUpdates) {
+        //the FrequencyController backs off
+        Logger.d(TAG,lostUpdates + " updates lost for " + itemName);
+        this.lostUpdates.addAndGet(lostUpdates);
     }
 
     @Override
     public void onSnapshotEnd(int itemPos, String itemName) {
-        Log.v(TAG,"Snapshot end for " + itemName);
+        Logger.v(TAG,"Snapshot end for " + itemName);
     }
 
     @Override
     public void onUnsubscr(int itemPos, String itemName) {
-        Log.v(TAG,"Unsubscribed " + itemName);
+        Logger.v(TAG,"Unsubscribed " + itemName);
     }
 
     @Override
     public void onUnsubscrAll() {
-        Log.v(TAG,"Unsubscribed all");
+        Logger.v(TAG,"Unsubscribed all");
     }
 
     @Override
     public void onUpdate(int itemPos, String itemName, UpdateInfo newData) {
-        Log.v(TAG,"Update for " + itemName);
-        final StockForList toUpdate = list.get(itemPos-1);
-        toUpdate.update(newData,this.context);
-    }
-    
-    
-    public class Context {
-        public Handler handler;
-        public ListView listView;
+        long receivedAt = System.nanoTime();
+        if (Logger.isLoggable(TAG, Logger.VERBOSE)) {
+            //no string building on the update path otherwise
+            Logger.v(TAG,"Update for " + itemName);
+        }
+        final StockForList toUpdate = catalog.getStock(itemName);
+        synchronized(update) {
+            //the row tables deliver concurrently, see LightstreamerClient.refreshSubscriptions too
+            update.wrap(newData);
+            if (toUpdate == null) {
+                return;
+            }
+            toUpdate.apply(update);
+        }
+        UpdateLatency.LIST.record(UpdateLatency.MODEL, receivedAt, System.nanoTime());
+        
+        RowDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null) {
+            dispatcher.onUpdated(toUpdate, receivedAt);
+        }
     }
 
-    @Override
-    public MpnStatusListener getMpnStatusListener() {
-        //not interested
-        return null;
-    }
-    
-}
\ No newline at end of file
+}
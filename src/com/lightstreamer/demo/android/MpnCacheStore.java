@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Stores the triggers of the active mpn subscriptions (group -> triggers) in
+ * a small binary file, stamped with a format version and the time the data
+ * was known to be in sync with the server. Not thread safe: the client only
+ * uses it from its events thread.
+ */
+class MpnCacheStore {
+
+    private static final String TAG = "LS_MPN";
+
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final long ttl;
+    private long loadedTimestamp = 0;
+
+    public MpnCacheStore(File file, long ttl) {
+        this.file = file;
+        this.ttl = ttl;
+    }
+
+    /*
+     * returns null if there is no file, if it can't be read, if it was
+     * written by a different version or if it is older than the ttl
+     */
+    public Map<String,Set<String>> load() {
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION) {
+                Logger.d(TAG,"Discarding mpn cache written by a different version");
+                return null;
+            }
+            long timestamp = in.readLong();
+            if (timestamp == 0 || System.currentTimeMillis() - timestamp > ttl) {
+                Logger.d(TAG,"Discarding stale mpn cache");
+                return null;
+            }
+
+            int groups = in.readInt();
+            Map<String,Set<String>> cache = new HashMap<String,Set<String>>(groups*2);
+            for (int g = 0; g < groups; g++) {
+                String group = in.readUTF();
+                int triggers = in.readInt();
+                Set<String> forGroup = new HashSet<String>(triggers*2);
+                for (int t = 0; t < triggers; t++) {
+                    forGroup.add(in.readBoolean() ? in.readUTF() : null);
+                }
+                cache.put(group,forGroup);
+            }
+            loadedTimestamp = timestamp;
+            return cache;
+
+        } catch (IOException e) {
+            Logger.d(TAG,"Can't read mpn cache: " + e.getMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /*
+     * the time the loaded data was in sync with the server, 0 if nothing was loaded
+     */
+    public long getLoadedTimestamp() {
+        return loadedTimestamp;
+    }
+
+    /*
+     * syncedAt is the time of the last sync with the server (0 if never,
+     * the file won't be loaded): local changes don't make the data fresher.
+     * The file is replaced only once the new one has been completely written
+     */
+    public void save(Map<String,? extends Map<String,?>> cache, long syncedAt) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeLong(syncedAt);
+
+            out.writeInt(cache.size());
+            for (Map.Entry<String,? extends Map<String,?>> group : cache.entrySet()) {
+                out.writeUTF(group.getKey());
+                out.writeInt(group.getValue().size());
+                for (String trigger : group.getValue().keySet()) {
+                    out.writeBoolean(trigger != null);
+                    if (trigger != null) {
+                        out.writeUTF(trigger);
+                    }
+                }
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file)) {
+                Logger.d(TAG,"Can't replace mpn cache");
+            }
+
+        } catch (IOException e) {
+            Logger.d(TAG,"Can't write mpn cache: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Append-only journal of the pending mpn operations (group, trigger, activate).
+ * Only the last operation for each group/trigger is alive: opposite operations
+ * supersede each other and duplicates collapse. When dead records outnumber the
+ * live ones the file is rewritten with the live operations only.
+ * Not thread safe: the client only uses it from its events thread.
+ */
+class MpnOpJournal {
+
+    private static final String TAG = "LS_MPN";
+
+    private static final int VERSION = 1;
+
+    private static final byte OP_ACTIVATE = 1;
+    private static final byte OP_DEACTIVATE = 2;
+    private static final byte OP_CLEAR = 3;
+
+    private static final int COMPACTION_THRESHOLD = 32;
+
+    public static class Op {
+        public final String group;
+        public final String trigger;
+        public final boolean activate;
+
+        Op(String group, String trigger, boolean activate) {
+            this.group = group;
+            this.trigger = trigger;
+            this.activate = activate;
+        }
+    }
+
+    private final File file;
+    private final Map<String,Op> live = new LinkedHashMap<String,Op>();
+
+    private DataOutputStream out = null;
+    private int records = 0;
+
+    public MpnOpJournal(File file) {
+        this.file = file;
+    }
+
+    /*
+     * reads the journal (a truncated last record is ignored) and compacts it;
+     * returns the live operations
+     */
+    public Map<String,Op> open() {
+        live.clear();
+        records = 0;
+
+        if (file.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() == VERSION) {
+                    while (true) {
+                        byte op = in.readByte();
+                        String group = in.readUTF();
+                        String trigger = in.readBoolean() ? in.readUTF() : null;
+                        this.apply(op,group,trigger);
+                    }
+                } else {
+                    Logger.d(TAG,"Discarding mpn journal written by a different version");
+                }
+            } catch (EOFException e) {
+                //end of the journal
+            } catch (IOException e) {
+                Logger.d(TAG,"Can't read mpn journal: " + e.getMessage());
+            } finally {
+                close(in);
+            }
+        }
+
+        this.compact();
+        return new LinkedHashMap<String,Op>(live);
+    }
+
+    public void put(String group, String trigger, boolean activate) {
+        Op current = live.get(key(group,trigger));
+        if (current != null && current.activate == activate) {
+            //duplicate
+            return;
+        }
+        this.append(activate ? OP_ACTIVATE : OP_DEACTIVATE, group, trigger);
+    }
+
+    public void clear(String group, String trigger) {
+        if (!live.containsKey(key(group,trigger))) {
+            return;
+        }
+        this.append(OP_CLEAR, group, trigger);
+    }
+
+    private void apply(byte op, String group, String trigger) {
+        String key = key(group,trigger);
+        if (op == OP_CLEAR) {
+            live.remove(key);
+        } else {
+            live.put(key, new Op(group,trigger,op == OP_ACTIVATE));
+        }
+    }
+
+    private void append(byte op, String group, String trigger) {
+        this.apply(op,group,trigger);
+
+        if (records >= COMPACTION_THRESHOLD && records > live.size()*2) {
+            this.compact();
+            return;
+        }
+
+        if (out == null) {
+            //open failed, nothing we can do, just keep the operations in memory
+            return;
+        }
+        try {
+            write(out,op,group,trigger);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            Logger.d(TAG,"Can't write mpn journal: " + e.getMessage());
+        }
+    }
+
+    /*
+     * rewrites the journal with the live operations only
+     */
+    private void compact() {
+        close(out);
+        out = null;
+        records = 0;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream compacted = null;
+        try {
+            compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            compacted.writeInt(VERSION);
+            for (Op op : live.values()) {
+                write(compacted, op.activate ? OP_ACTIVATE : OP_DEACTIVATE, op.group, op.trigger);
+            }
+            compacted.close();
+            compacted = null;
+
+            if (!tmp.renameTo(file)) {
+                Logger.d(TAG,"Can't replace mpn journal");
+                return;
+            }
+            records = live.size();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file,true)));
+
+        } catch (IOException e) {
+            Logger.d(TAG,"Can't compact mpn journal: " + e.getMessage());
+        } finally {
+            close(compacted);
+        }
+    }
+
+    private static void write(DataOutputStream out, byte op, String group, String trigger) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(group);
+        out.writeBoolean(trigger != null);
+        if (trigger != null) {
+            out.writeUTF(trigger);
+        }
+    }
+
+    private static String key(String group, String trigger) {
+        //groups never contain a '|'
+        return trigger == null ? group : group + "|" + trigger;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lightstreamer.ls_client.PushConnException;
+import com.lightstreamer.ls_client.PushServerException;
+import com.lightstreamer.ls_client.PushUserException;
+import com.lightstreamer.ls_client.SubscrException;
+import com.lightstreamer.ls_client.mpn.MpnInfo;
+
+/*
+ * Checks the status of a set of mpn subscriptions concurrently, with a bounded
+ * number of requests in flight, and hands all the results to the target at once.
+ */
+class MpnStatusInquirer {
+
+    private static final String TAG = "LS_MPN";
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public interface Target {
+        /*
+         * performs the (blocking) inquiry
+         */
+        public boolean isAlive(MpnInfo info)
+                throws SubscrException, PushServerException, PushUserException, PushConnException;
+        /*
+         * called once per inquiry, from one of the inquiring threads; infos whose
+         * status could not be determined are not part of the results
+         */
+        public void onStatusRetrieved(int connId, String key, Map<MpnInfo,Boolean> results);
+    }
+
+    private final Target target;
+    private final ThreadPoolExecutor workers;
+
+    public MpnStatusInquirer(Target target, int maxInFlight) {
+        this.target = target;
+
+        this.workers = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    public void inquire(int connId, String key, Collection<MpnInfo> infos) {
+        if (infos.isEmpty()) {
+            return;
+        }
+        Inquiry inquiry = new Inquiry(connId,key,infos.size());
+        for (MpnInfo info : infos) {
+            workers.execute(new InquiryTask(inquiry,info));
+        }
+    }
+
+    private class Inquiry {
+
+        private final int connId;
+        private final String key;
+        private final AtomicInteger missing;
+        private final Map<MpnInfo,Boolean> results; // guarded by this
+
+        public Inquiry(int connId, String key, int size) {
+            this.connId = connId;
+            this.key = key;
+            this.missing = new AtomicInteger(size);
+            this.results = new HashMap<MpnInfo,Boolean>(size*2);
+        }
+
+        void onResult(MpnInfo info, Boolean alive) {
+            if (alive != null) {
+                synchronized(this) {
+                    results.put(info,alive);
+                }
+            }
+            if (missing.decrementAndGet() == 0) {
+                Map<MpnInfo,Boolean> completed;
+                synchronized(this) {
+                    completed = results;
+                }
+                target.onStatusRetrieved(connId,key,completed);
+            }
+        }
+    }
+
+    private class InquiryTask implements Runnable {
+
+        private final Inquiry inquiry;
+        private final MpnInfo info;
+
+        public InquiryTask(Inquiry inquiry, MpnInfo info) {
+            this.inquiry = inquiry;
+            this.info = info;
+        }
+
+        @Override
+        public void run() {
+            Boolean alive = null;
+            try {
+                alive = target.isAlive(info);
+            } catch (SubscrException e) {
+                Logger.d(TAG,"Connection problems: " + e.getMessage());
+            } catch (PushServerException e) {
+                Logger.d(TAG,"Request error: " + e.getErrorCode() + ": " + e.getMessage());
+            } catch (PushUserException e) {
+                Logger.d(TAG,"Request refused: " + e.getErrorCode() + ": " + e.getMessage());
+            } catch (PushConnException e) {
+                Logger.d(TAG,"Connection problems: " + e.getMessage());
+            } finally {
+                inquiry.onResult(info,alive);
+            }
+        }
+
+    }
+
+}
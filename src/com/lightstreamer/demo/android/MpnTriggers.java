@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+/*
+ * The trigger expressions of the price alerts: the last price (field 2 of
+ * the mpn subscription) compared with a threshold. No Android dependencies,
+ * see the benchmarks.
+ */
+final class MpnTriggers {
+
+    public static final String HEAD = "Double.parseDouble($[2])";
+    public static final String LT = "<=";
+    public static final String GT = ">=";
+
+    private MpnTriggers() {
+    }
+
+    /*
+     * null if there is no threshold (triggerVal < 0)
+     */
+    public static String toString(double triggerVal, double current) {
+        String trigger = null;
+        if (triggerVal >= 0) {
+            trigger = HEAD;
+            if (triggerVal < current) {
+                trigger += LT; 
+            } else {
+                trigger += GT;
+            }
+            
+            trigger += triggerVal;
+        }
+        
+        return trigger; 
+    }
+
+    /*
+     * the threshold of a trigger built by toString
+     */
+    public static double parse(String trigger) throws NumberFormatException {
+        //LT and GT have the same length
+        return Double.parseDouble(trigger.substring(HEAD.length()+GT.length()));
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+/*
+ * The last prices of the chart (time in seconds of the day -> price) and
+ * the range of the Y axis that contains them. No Android dependencies and
+ * no allocations when adding (primitive ring buffers), see the benchmarks.
+ */
+class PriceSeries {
+
+    private final double[] prices;
+    private final int[] times;
+    private int first = 0;
+    private int size = 0;
+    
+    double maxY = 0; 
+    double minY = 0;
+    
+    public PriceSeries(int maxSize) {
+        this.prices = new double[maxSize];
+        this.times = new int[maxSize];
+    }
+    
+    public void add(String time, String lastPrice) {
+        double newPrice = QuoteCodec.parseDecimal(lastPrice);
+        int intTime = QuoteCodec.parseTime(time);
+        
+        if (size == 0) {
+            onFirstPoint(newPrice);
+        }
+        
+        if (newPrice < minY || newPrice > maxY) {
+            onYOverflow(newPrice);
+        }
+        
+        int last;
+        if (size < prices.length) {
+            last = (first + size++) % prices.length;
+        } else {
+            //drop the oldest
+            last = first;
+            first = (first + 1) % prices.length;
+        }
+        prices[last] = newPrice;
+        times[last] = intTime;
+    }
+    
+    public void reset() {
+        first = 0;
+        size = 0;
+        maxY = 0;
+        minY = 0;
+    }
+    
+    /*
+     * boxed for the plot (at draw time, not when adding)
+     */
+    public Number getX(int index) {
+        return times[(first + index) % times.length];
+    }
+
+    public Number getY(int index) {
+        return prices[(first + index) % prices.length];
+    }
+
+    public int size() {
+        return size;
+    }
+    
+    private void onYOverflow(double last) {
+        //TODO currently never shrinks
+        int shift = 1;
+        if (last > maxY) {
+            double newMax = maxY + shift;
+          if (last > newMax) {
+            newMax = last;
+          }
+
+          this.maxY = newMax;
+
+        } else if (last < minY) {
+            double newMin = minY - shift;
+          if (last < newMin) {
+            newMin = last;
+          }
+          
+          this.minY = newMin;
+        }
+    }
+    
+    private void onFirstPoint(double newPrice) {
+        minY = newPrice-1;
+        if (minY < 0) {
+            minY = 0;
+        }
+        maxY = newPrice+1;
+    }
+
+}
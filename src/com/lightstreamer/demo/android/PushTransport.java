@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.List;
+
+import com.lightstreamer.ls_client.ConnectionConstraints;
+import com.lightstreamer.ls_client.ConnectionInfo;
+import com.lightstreamer.ls_client.ConnectionListener;
+import com.lightstreamer.ls_client.ExtendedTableInfo;
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.PushConnException;
+import com.lightstreamer.ls_client.PushServerException;
+import com.lightstreamer.ls_client.PushUserException;
+import com.lightstreamer.ls_client.SubscrException;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+import com.lightstreamer.ls_client.mpn.MpnInfo;
+import com.lightstreamer.ls_client.mpn.MpnStatus;
+
+/*
+ * The part of the LSClient interface used by the LightstreamerClient, so that
+ * the real client (LSClientTransport) can be replaced, e.g. by the
+ * FakePushTransport. Mpn subscriptions are identified by their MpnInfo
+ * (as returned by inquireAllMpn or passed to activateMpn) instead of their
+ * MpnKey, which only the real client can create.
+ */
+public interface PushTransport {
+
+    public void openConnection(ConnectionInfo info, ConnectionListener listener)
+            throws PushConnException, PushServerException, PushUserException;
+
+    public void closeConnection();
+
+    public void changeConstraints(ConnectionConstraints constraints)
+            throws PushConnException, PushServerException, PushUserException;
+
+    public void batchRequests(int batchSize) throws SubscrException;
+
+    public void closeBatch();
+
+    public SubscribedTableKey subscribeTable(ExtendedTableInfo table, HandyTableListener listener, boolean commandLogic)
+            throws SubscrException, PushServerException, PushUserException, PushConnException;
+
+    public void unsubscribeTable(SubscribedTableKey key)
+            throws SubscrException, PushServerException, PushConnException;
+
+    public void unsubscribeTables(SubscribedTableKey[] keys)
+            throws SubscrException, PushServerException, PushConnException;
+
+    public List<MpnInfo> inquireAllMpn()
+            throws SubscrException, PushServerException, PushUserException, PushConnException;
+
+    public MpnStatus inquireMpnStatus(MpnInfo info)
+            throws SubscrException, PushServerException, PushUserException, PushConnException;
+
+    public void activateMpn(MpnInfo info)
+            throws SubscrException, PushServerException, PushUserException, PushConnException;
+
+    public void deactivateMpn(MpnInfo info)
+            throws SubscrException, PushServerException, PushUserException, PushConnException;
+
+    public void deactivateMpn(MpnStatus status)
+            throws SubscrException, PushServerException, PushUserException, PushConnException;
+
+}
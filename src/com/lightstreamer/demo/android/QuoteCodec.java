@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+/*
+ * Parses and formats the QUOTE_ADAPTER values straight from/to characters,
+ * without creating objects on the update path (see the benchmarks). Prices
+ * are plain decimals like "12.5" or "-0.37"; anything else (exponents, more
+ * than 18 digits) falls back on Double.parseDouble. Quantities are plain
+ * non-negative integers. Times are HH:mm:ss.
+ */
+final class QuoteCodec {
+
+    /*
+     * enough for any value formatted by formatPrice
+     */
+    public static final int MAX_LENGTH = 32;
+
+    private static final int MAX_DIGITS = 18;
+    private static final long MAX_EXACT = 1L << 53;
+    private static final double SPLIT = 134217729; // 2^27 + 1
+    //value * 100 keeps a fractional bit below 2^52, see roundCents
+    private static final double MAX_FAST_PRICE = 1e13;
+
+    //exactly representable as doubles
+    private static final double[] POW10 = new double[MAX_DIGITS + 1];
+    private static final long[] LONG_POW10 = new long[MAX_DIGITS + 1];
+    static {
+        POW10[0] = 1;
+        LONG_POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i-1] * 10;
+            LONG_POW10[i] = LONG_POW10[i-1] * 10;
+        }
+    }
+
+    private static final char[] NOT_AVAILABLE = "N/A".toCharArray();
+
+    private QuoteCodec() {
+    }
+
+    /*
+     * same result as Double.parseDouble for plain decimals (the division of
+     * two exact doubles is correctly rounded)
+     */
+    public static double parseDecimal(CharSequence value) throws NumberFormatException {
+        if (value == null) {
+            throw new NumberFormatException("null");
+        }
+        int length = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) {
+                    return Double.parseDouble(value.toString());
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                //exponent, spaces, garbage: let the JDK decide
+                return Double.parseDouble(value.toString());
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("No digits: " + value);
+        }
+        if (mantissa >= MAX_EXACT) {
+            return Double.parseDouble(value.toString());
+        }
+
+        double result = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+        return negative ? -result : result;
+    }
+
+    /*
+     * the value times 10^scale, exactly: a value with more (non zero) decimals
+     * than the scale or with more than 18 digits once scaled is refused
+     */
+    public static long parseFixed(CharSequence value, int scale) throws NumberFormatException {
+        int start = plainStart(value);
+        if (start < 0 || scale < 0 || scale > MAX_DIGITS) {
+            throw new NumberFormatException("Not a plain decimal: " + value);
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '.') {
+                decimals = 0;
+            } else if (decimals >= scale) {
+                if (c != '0') {
+                    throw new NumberFormatException("More than " + scale + " decimals: " + value);
+                }
+            } else {
+                if (decimals >= 0) {
+                    decimals++;
+                }
+                if ((mantissa != 0 || c != '0') && ++digits > MAX_DIGITS) {
+                    throw new NumberFormatException("Too many digits: " + value);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+            }
+        }
+        int missing = scale - Math.max(decimals, 0);
+        if (mantissa != 0 && digits + missing > MAX_DIGITS) {
+            throw new NumberFormatException("Too many digits: " + value);
+        }
+        mantissa *= LONG_POW10[missing];
+        return value.charAt(0) == '-' ? -mantissa : mantissa;
+    }
+
+    public static long parseQuantity(CharSequence value) throws NumberFormatException {
+        if (value == null || value.length() == 0 || value.length() > MAX_DIGITS) {
+            throw new NumberFormatException("Not a quantity: " + value);
+        }
+        long quantity = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a quantity: " + value);
+            }
+            quantity = quantity * 10 + (c - '0');
+        }
+        return quantity;
+    }
+
+    /*
+     * the sign of a - b, digit by digit for plain decimals ("1.50" is "1.5",
+     * "-0" is "0"), any length; anything else is parsed, see parseDecimal
+     */
+    public static int compareDecimal(CharSequence a, CharSequence b) throws NumberFormatException {
+        int aStart = plainStart(a);
+        int bStart = plainStart(b);
+        if (aStart < 0 || bStart < 0) {
+            double diff = parseDecimal(a) - parseDecimal(b);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+        boolean aNegative = a.charAt(0) == '-';
+        boolean bNegative = b.charAt(0) == '-';
+        if (aNegative == bNegative) {
+            int magnitude = compareMagnitude(a, aStart, b, bStart);
+            return aNegative ? -magnitude : magnitude;
+        }
+        if (isZero(a, aStart) && isZero(b, bStart)) {
+            return 0;
+        }
+        return aNegative ? -1 : 1;
+    }
+
+    /*
+     * where the digits start (after the sign) if the value is a plain
+     * decimal, -1 otherwise
+     */
+    private static int plainStart(CharSequence value) {
+        if (value == null) {
+            return -1;
+        }
+        int length = value.length();
+        int start = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        boolean digits = false;
+        boolean dot = false;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return -1;
+            }
+        }
+        return digits ? start : -1;
+    }
+
+    private static int compareMagnitude(CharSequence a, int aStart, CharSequence b, int bStart) {
+        while (aStart < a.length() && a.charAt(aStart) == '0') {
+            aStart++;
+        }
+        while (bStart < b.length() && b.charAt(bStart) == '0') {
+            bStart++;
+        }
+        int aDot = dotOf(a, aStart);
+        int bDot = dotOf(b, bStart);
+        //no leading zeros: the longer integer part is the larger
+        if (aDot - aStart != bDot - bStart) {
+            return aDot - aStart < bDot - bStart ? -1 : 1;
+        }
+        for (int i = aStart, j = bStart; i < aDot; i++, j++) {
+            if (a.charAt(i) != b.charAt(j)) {
+                return a.charAt(i) < b.charAt(j) ? -1 : 1;
+            }
+        }
+        //missing decimals are zeros
+        for (int i = aDot + 1, j = bDot + 1; i < a.length() || j < b.length(); i++, j++) {
+            char aDigit = i < a.length() ? a.charAt(i) : '0';
+            char bDigit = j < b.length() ? b.charAt(j) : '0';
+            if (aDigit != bDigit) {
+                return aDigit < bDigit ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int dotOf(CharSequence value, int from) {
+        int i = from;
+        while (i < value.length() && value.charAt(i) != '.') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isZero(CharSequence value, int start) {
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '0' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * formats like a DecimalFormat("#.00") (no leading zero, half even) into
+     * the buffer (at least MAX_LENGTH chars), "N/A" if longer; returns the length
+     */
+    public static int formatPrice(double value, char[] buffer) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FAST_PRICE) {
+            //not a price, not worth a fast path
+            String text = new java.text.DecimalFormat("#.00").format(value);
+            if (text.length() > MAX_LENGTH) {
+                return formatNotAvailable(buffer);
+            }
+            text.getChars(0, text.length(), buffer, 0);
+            return text.length();
+        }
+
+        int pos = 0;
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            buffer[pos++] = '-';
+        }
+        long cents = roundCents(Math.abs(value));
+        long units = cents / 100;
+        int fraction = (int) (cents % 100);
+        if (units > 0) {
+            pos = appendLong(units, buffer, pos);
+        }
+        buffer[pos++] = '.';
+        buffer[pos++] = (char) ('0' + fraction / 10);
+        buffer[pos++] = (char) ('0' + fraction % 10);
+        return pos;
+    }
+
+    /*
+     * rounds the exact value (not value * 100, which is rounded already)
+     * to cents, half even like DecimalFormat
+     */
+    private static long roundCents(double value) {
+        double scaled = value * 100;
+        double error = productError(value, 100, scaled);
+        double floor = Math.floor(scaled);
+        //exact, and either 0 or larger than the error
+        double fromHalf = (scaled - floor) - 0.5;
+
+        long cents = (long) floor;
+        if (fromHalf > 0 || (fromHalf == 0 && (error > 0 || (error == 0 && (cents & 1) == 1)))) {
+            cents++;
+        }
+        return cents;
+    }
+
+    /*
+     * a * b - product, exactly (Dekker)
+     */
+    private static double productError(double a, double b, double product) {
+        double split = SPLIT * a;
+        double aHigh = split - (split - a);
+        double aLow = a - aHigh;
+        split = SPLIT * b;
+        double bHigh = split - (split - b);
+        double bLow = b - bHigh;
+        return ((aHigh * bHigh - product) + aHigh * bLow + aLow * bHigh) + aLow * bLow;
+    }
+
+    /*
+     * "N/A" into the buffer; returns the length
+     */
+    public static int formatNotAvailable(char[] buffer) {
+        System.arraycopy(NOT_AVAILABLE, 0, buffer, 0, NOT_AVAILABLE.length);
+        return NOT_AVAILABLE.length;
+    }
+
+    /*
+     * HH:mm:ss -> seconds of the day
+     */
+    public static int parseTime(CharSequence time) throws NumberFormatException {
+        if (time == null || time.length() != 8 || time.charAt(2) != ':' || time.charAt(5) != ':') {
+            throw new NumberFormatException("Not a time: " + time);
+        }
+        return twoDigits(time, 0)*60*60 + twoDigits(time, 3)*60 + twoDigits(time, 6);
+    }
+
+    private static int twoDigits(CharSequence value, int at) throws NumberFormatException {
+        char tens = value.charAt(at);
+        char units = value.charAt(at + 1);
+        if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+            throw new NumberFormatException("Not a time: " + value);
+        }
+        return (tens - '0') * 10 + (units - '0');
+    }
+
+    private static int appendLong(long value, char[] buffer, int pos) {
+        int start = pos;
+        do {
+            buffer[pos++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        //digits were written backwards
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        return pos;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+/*
+ * The fields of the QUOTE_ADAPTER items by index, so that nothing on the
+ * update path looks a field up by name. A schema is a set of fields (a
+ * bitmask over the indexes) compiled once into the field list of its tables:
+ * the field at position p (1-based, as in UpdateInfo) is the p-th set bit.
+ * See QuoteUpdate for the updates.
+ */
+final class QuoteSchema {
+
+    static final int STOCK_NAME = 0;
+    static final int LAST_PRICE = 1;
+    static final int TIME = 2;
+    static final int PCT_CHANGE = 3;
+    static final int BID_QUANTITY = 4;
+    static final int BID = 5;
+    static final int ASK = 6;
+    static final int ASK_QUANTITY = 7;
+    static final int MIN = 8;
+    static final int MAX = 9;
+    static final int OPEN_PRICE = 10;
+
+    //by index; at most 32, see the bitmasks (and SnapshotStore)
+    static final String[] NAMES = {"stock_name", "last_price", "time", "pct_change", "bid_quantity", "bid", "ask", "ask_quantity", "min", "max", "open_price"};
+    static final int COUNT = NAMES.length;
+
+    static final int ALL = (1 << COUNT) - 1;
+    //highlighted as up or down, see Stock.highlight
+    static final int NUMERIC = ALL & ~(bit(STOCK_NAME) | bit(TIME));
+
+    //see StocksFragment; also the fields of the mpn subscriptions ($[2] is the last price, see MpnTriggers)
+    static final QuoteSchema LIST = new QuoteSchema(bit(STOCK_NAME) | bit(LAST_PRICE) | bit(TIME));
+    //see DetailsFragment
+    static final QuoteSchema DETAILS = new QuoteSchema(ALL);
+
+    static int bit(int index) {
+        return 1 << index;
+    }
+
+    /*
+     * -1 if unknown; not meant for the update path
+     */
+    static int indexOf(String name) {
+        for (int i = 0; i < COUNT; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private final int fields;
+    private final String[] names;
+    private final int[] indexes; // by position - 1
+
+    private QuoteSchema(int fields) {
+        this.fields = fields;
+        int size = Integer.bitCount(fields);
+        this.names = new String[size];
+        this.indexes = new int[size];
+        int position = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if ((fields & bit(i)) != 0) {
+                names[position] = NAMES[i];
+                indexes[position] = i;
+                position++;
+            }
+        }
+    }
+
+    int getFields() {
+        return fields;
+    }
+
+    int size() {
+        return indexes.length;
+    }
+
+    /*
+     * the index of the field at the given position of the tables (1-based)
+     */
+    int indexAt(int position) {
+        return indexes[position - 1];
+    }
+
+    /*
+     * for the ExtendedTableInfo of the tables
+     */
+    String[] getFieldNames() {
+        return names.clone();
+    }
+
+}
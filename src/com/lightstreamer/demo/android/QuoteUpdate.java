@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import com.lightstreamer.ls_client.UpdateInfo;
+
+/*
+ * An update of a table of a QuoteSchema as a bitmask of the changed fields
+ * plus the values by field index, read by position once per update. The
+ * instance is refilled by each update (nothing is allocated on the update
+ * path): it is only good until the next wrap, so the listeners hold its lock
+ * while using it.
+ */
+final class QuoteUpdate {
+
+    private final QuoteSchema schema;
+    private final String[] values = new String[QuoteSchema.COUNT];
+    private final String[] oldValues = new String[QuoteSchema.COUNT];
+
+    private String item;
+    private boolean snapshot;
+    private int changed;
+
+    QuoteUpdate(QuoteSchema schema) {
+        this.schema = schema;
+    }
+
+    QuoteUpdate wrap(UpdateInfo update) {
+        int changed = 0;
+        for (int position = 1; position <= schema.size(); position++) {
+            int index = schema.indexAt(position);
+            values[index] = update.getNewValue(position);
+            if (update.isValueChanged(position)) {
+                changed |= QuoteSchema.bit(index);
+                oldValues[index] = update.getOldValue(position);
+            }
+        }
+        this.changed = changed;
+        this.item = update.getItemName();
+        this.snapshot = update.isSnapshot();
+        return this;
+    }
+
+    String getItemName() {
+        return item;
+    }
+
+    boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /*
+     * a bitmask over the QuoteSchema indexes
+     */
+    int getChanged() {
+        return changed;
+    }
+
+    boolean isChanged(int index) {
+        return (changed & QuoteSchema.bit(index)) != 0;
+    }
+
+    /*
+     * the current value of a field of the schema (null if not yet received)
+     */
+    String get(int index) {
+        return values[index];
+    }
+
+    /*
+     * only meaningful for the changed fields
+     */
+    String getOld(int index) {
+        return oldValues[index];
+    }
+
+}
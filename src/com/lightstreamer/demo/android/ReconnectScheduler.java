@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Schedules reconnection attempts on a timer so that the events thread
+ * is never put to sleep while waiting to retry. The delay grows exponentially
+ * up to a cap and is jittered so that many clients do not reconnect in lockstep.
+ */
+class ReconnectScheduler {
+
+    private static final int MAX_SHIFT = 16;
+
+    private final ScheduledExecutorService timer;
+    private final Executor target;
+    private final long minDelay;
+    private final long maxDelay;
+
+    private final AtomicInteger attempts = new AtomicInteger(0);
+    private final Random random = new Random();
+
+    private ScheduledFuture<?> pending = null; // guarded by this
+
+    public ReconnectScheduler(ScheduledExecutorService timer, Executor target, long minDelay, long maxDelay) {
+        this.timer = timer;
+        this.target = target;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /*
+     * schedules the task to be executed on the target executor once the next backoff
+     * delay expires; any previously scheduled task is discarded. Returns the chosen delay
+     */
+    public synchronized long schedule(final Runnable task) {
+        this.cancel();
+
+        long delay = this.nextDelay();
+        this.pending = timer.schedule(new Runnable() {
+            public void run() {
+                target.execute(task);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+
+        return delay;
+    }
+
+    /*
+     * discards the scheduled task, if any. Returns true if a task was actually waiting
+     */
+    public synchronized boolean cancel() {
+        if (this.pending == null) {
+            return false;
+        }
+        boolean cancelled = this.pending.cancel(false);
+        this.pending = null;
+        return cancelled;
+    }
+
+    /*
+     * called once a session is established: the next failure will start again
+     * from the minimum delay
+     */
+    public void reset() {
+        attempts.set(0);
+    }
+
+    private long nextDelay() {
+        int shift = Math.min(attempts.getAndIncrement(), MAX_SHIFT);
+        long ceiling = Math.min(maxDelay, minDelay << shift);
+
+        //keep half of the delay and randomize the other half
+        long half = ceiling / 2;
+        synchronized(random) {
+            return half + (long) (random.nextDouble() * (ceiling - half));
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Subscribes a set of subscriptions in batches of at most MAX_BATCH: used to
+ * resubscribe everything on a new session, to send coalesced subscription
+ * requests and to refresh subscriptions with a new table info. Each blocking subscribeTable call holds its thread until the
+ * whole batch is sent, so the calls of a batch are issued from a pool of
+ * MAX_BATCH workers (idle threads die after a while); the sets are served one
+ * at a time by a single session thread, which opens each batch, waits for its
+ * results and releases it, so that the events thread is never blocked and
+ * the workers are always enough for the batch in progress.
+ * The target owns the client between openBatch and releaseBatch (both called
+ * from the session thread): no other request can end up in (or close) the batch.
+ */
+class ResubscriptionPipeline {
+
+    private static final String TAG = "LS_SUB";
+
+    private static final int MAX_BATCH = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public interface Target {
+        /*
+         * true if connId still identifies the current session
+         */
+        public boolean isCurrentSession(int connId);
+        /*
+         * waits for exclusive use of the client and starts a batch of size
+         * requests, false if the connection was closed (the client is not held)
+         */
+        public boolean openBatch(int size);
+        /*
+         * sends the requests batched so far: called as soon as a subscription
+         * of the batch completes, as the others can't fill the batch anymore
+         * if it was not sent yet
+         */
+        public void closeBatch();
+        /*
+         * gives the client back, once every subscription of the batch
+         * completed; called by the thread that called openBatch
+         */
+        public void releaseBatch();
+        /*
+         * performs the (blocking) subscription, false if it failed
+         */
+        public boolean subscribe(Subscription sub);
+    }
+
+    public interface Completion {
+        /*
+         * the set has been served, subscribed are those that succeeded;
+         * called from the session thread, the client is not held
+         */
+        public void onCompleted(int connId, List<Subscription> subscribed);
+    }
+
+    private final Target target;
+    private final ThreadPoolExecutor sessions;
+    private final ThreadPoolExecutor workers;
+
+    private volatile int lastConnId = 0;
+    private volatile long lastLatency = -1;
+
+    public ResubscriptionPipeline(Target target) {
+        this.target = target;
+
+        this.sessions = new ThreadPoolExecutor(1, 1,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.sessions.allowCoreThreadTimeOut(true);
+        this.workers = new ThreadPoolExecutor(MAX_BATCH, MAX_BATCH,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * subs must not be changed by the caller after this call
+     */
+    public void resubscribe(int connId, List<Subscription> subs) {
+        if (subs.isEmpty()) {
+            return;
+        }
+        Logger.i(TAG,connId + ": Resubscribing " + subs.size() + " subscriptions");
+        sessions.execute(new Session(connId,subs,true,null));
+    }
+    
+    /*
+     * subscribes a set of subscriptions on the current session;
+     * returns the number of batches that will be used
+     */
+    public int subscribe(int connId, List<Subscription> subs) {
+        return this.subscribe(connId, subs, null);
+    }
+
+    /*
+     * as subscribe, then completion (if any) is told which subscriptions succeeded
+     */
+    public int subscribe(int connId, List<Subscription> subs, Completion completion) {
+        if (subs.isEmpty()) {
+            return 0;
+        }
+        sessions.execute(new Session(connId,subs,false,completion));
+        return (subs.size() + MAX_BATCH - 1) / MAX_BATCH;
+    }
+
+    /*
+     * time in ms spent by the last completed resubscription
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /*
+     * session that performed the last completed resubscription
+     */
+    public int getLastConnId() {
+        return lastConnId;
+    }
+
+    private class Session implements Runnable {
+
+        private final int connId;
+        private final List<Subscription> subs;
+        private final boolean resubscription;
+        private final Completion completion;
+        private final long startTime = System.nanoTime();
+
+        private final AtomicInteger succeeded = new AtomicInteger(0);
+        //only if there is a completion to tell
+        private final List<Subscription> subscribed;
+
+        public Session(int connId, List<Subscription> subs, boolean resubscription, Completion completion) {
+            this.connId = connId;
+            this.subs = subs;
+            this.resubscription = resubscription;
+            this.completion = completion;
+            this.subscribed = completion == null ? null : Collections.synchronizedList(new ArrayList<Subscription>(subs.size()));
+        }
+
+        /*
+         * runs on the session thread, as openBatch may wait for other requests to complete
+         */
+        @Override
+        public void run() {
+            for (int from = 0; from < subs.size(); from += MAX_BATCH) {
+                List<Subscription> batch = subs.subList(from, Math.min(from + MAX_BATCH, subs.size()));
+                if (!target.isCurrentSession(connId) || !target.openBatch(batch.size())) {
+                    //connection is closed, exit
+                    break;
+                }
+                try {
+                    this.subscribe(batch);
+                } finally {
+                    target.releaseBatch();
+                }
+            }
+            this.done();
+            if (completion != null) {
+                completion.onCompleted(connId, subscribed);
+            }
+        }
+
+        private void subscribe(List<Subscription> batch) {
+            CountDownLatch results = new CountDownLatch(batch.size());
+            AtomicBoolean closed = new AtomicBoolean(false);
+            for (Subscription sub : batch) {
+                workers.execute(new SubscribeTask(this,sub,results,closed));
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    results.await();
+                    break;
+                } catch (InterruptedException e) {
+                    //the client must be given back only once the batch completed
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void onResult(Subscription sub, boolean success, CountDownLatch results, AtomicBoolean closed) {
+            if (success) {
+                succeeded.incrementAndGet();
+                if (subscribed != null) {
+                    subscribed.add(sub);
+                }
+            }
+            if (closed.compareAndSet(false, true)) {
+                target.closeBatch();
+            }
+            results.countDown();
+        }
+
+        private void done() {
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            if (!resubscription) {
+                Logger.d(TAG,connId + ": Subscribed " + succeeded.get() + "/" + subs.size() + " subscriptions in " + latency + "ms");
+                return;
+            }
+            if (target.isCurrentSession(connId)) {
+                lastConnId = connId;
+                lastLatency = latency;
+            }
+            Logger.i(TAG,connId + ": Resubscribed " + succeeded.get() + "/" + subs.size() + " subscriptions in " + latency + "ms");
+        }
+
+    }
+
+    private class SubscribeTask implements Runnable {
+
+        private final Session session;
+        private final Subscription sub;
+        private final CountDownLatch results;
+        private final AtomicBoolean closed;
+
+        public SubscribeTask(Session session, Subscription sub, CountDownLatch results, AtomicBoolean closed) {
+            this.session = session;
+            this.sub = sub;
+            this.results = results;
+            this.closed = closed;
+        }
+
+        @Override
+        public void run() {
+            boolean success = false;
+            try {
+                success = target.subscribe(sub);
+            } finally {
+                session.onResult(sub, success, results, closed);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.ArrayList;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import android.view.Choreographer;
+
+/*
+ * Redraws the list rows in batches: an update (from the client threads) only
+ * marks its row dirty and the dirty rows are notified together on the next
+ * display frame, so that there's at most one message of ours in the main
+ * queue whatever the update rate. Rows that are not on screen are not marked
+ * at all (the adapter binds them from the model when they scroll in). The
+ * flush binds the dirty rows in place, without notifying the RecyclerView
+ * (no layout pass), setting only the views of the fields changed since the
+ * last bind, see StockForList.bindChanges. Highlights are turned off by the
+ * HighlightDecay.
+ * Queue depth: MessageQueue exposes no size, the time our flush waits in the
+ * queue (request to run) is published instead. The latency percentiles of
+ * each stage are in UpdateLatency.LIST.
+ */
+class RowDispatcher {
+
+    private static final String TAG = "LS_ROWS";
+
+    public interface Target {
+        /*
+         * binds the changes of the row at position to its views, if shown;
+         * returns the number of views set. UI thread
+         */
+        public int bindRow(int position);
+    }
+
+    public interface RedrawListener {
+        /*
+         * some rows were redrawn; UI thread
+         */
+        public void onRowsRedrawn();
+    }
+
+    private final Handler handler;
+    private final Target target;
+    private final RedrawListener redrawListener;
+    private final FrameScheduler frames;
+
+    private volatile int firstVisible = 0;
+    private volatile int lastVisible = -1;
+
+    private ArrayList<StockForList> dirty = new ArrayList<StockForList>(); // guarded by this
+    private ArrayList<StockForList> flushing = new ArrayList<StockForList>(); // UI thread only
+    private boolean flushPending = false; // guarded by this
+    private long requestedAt = 0; // guarded by this, nanoTime
+    private boolean running = true; // guarded by this
+
+    //stats
+    private long updates = 0; // guarded by this
+    private long coalesced = 0; // guarded by this
+    private long skipped = 0; // guarded by this
+    private long flushes = 0; // UI thread only
+    private long redraws = 0; // UI thread only
+    private long boundViews = 0; // UI thread only
+    private long totalLag = 0; // UI thread only, ns
+    private long maxLag = 0; // UI thread only, ns
+
+    private final Runnable flushRequest = new Runnable() {
+        public void run() {
+            if (frames != null) {
+                frames.schedule();
+            } else {
+                //no Choreographer: the message itself is our frame
+                flush();
+            }
+        }
+    };
+
+    public RowDispatcher(Handler handler, Target target, RedrawListener redrawListener) {
+        this.handler = handler;
+        this.target = target;
+        this.redrawListener = redrawListener;
+        this.frames = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameScheduler() : null;
+    }
+
+    /*
+     * from the OnScrollListener
+     */
+    public void onVisibleRange(int firstVisible, int visibleCount) {
+        this.firstVisible = firstVisible;
+        this.lastVisible = firstVisible + visibleCount - 1;
+    }
+
+    /*
+     * the model of the row has been updated with an update received at
+     * receivedAt (nanoTime); from any thread
+     */
+    public void onUpdated(StockForList stock, long receivedAt) {
+        int pos = stock.getPos();
+        synchronized(this) {
+            updates++;
+            if (!running || pos < firstVisible || pos > lastVisible) {
+                skipped++;
+                return;
+            }
+            if (stock.dirty) {
+                coalesced++;
+                return;
+            }
+            stock.dirty = true;
+            stock.dirtySince = receivedAt;
+            dirty.add(stock);
+            if (flushPending) {
+                return;
+            }
+            flushPending = true;
+            requestedAt = System.nanoTime();
+        }
+        handler.post(flushRequest);
+    }
+
+    /*
+     * the list is gone; pending redraws are dropped
+     */
+    public void stop() {
+        synchronized(this) {
+            running = false;
+            for (StockForList stock : dirty) {
+                stock.dirty = false;
+            }
+            dirty.clear();
+            flushPending = false;
+        }
+        handler.removeCallbacks(flushRequest);
+        if (frames != null) {
+            frames.cancel();
+        }
+        Log.d(TAG,this.getStats());
+    }
+
+    private void flush() { //UI thread
+        long now = System.nanoTime();
+        long oldest = now;
+        ArrayList<StockForList> toFlush;
+        synchronized(this) {
+            if (!flushPending) {
+                //stopped
+                return;
+            }
+            flushPending = false;
+            long lag = now - requestedAt;
+            totalLag += lag;
+            maxLag = Math.max(maxLag, lag);
+            UpdateLatency.LIST.record(UpdateLatency.QUEUE, requestedAt, now);
+
+            toFlush = dirty;
+            dirty = flushing;
+            for (int i = 0; i < toFlush.size(); i++) {
+                StockForList stock = toFlush.get(i);
+                stock.dirty = false;
+                oldest = Math.min(oldest, stock.dirtySince);
+            }
+        }
+        flushing = toFlush;
+        flushes++;
+        long redrawn = redraws;
+
+        for (int i = 0; i < toFlush.size(); i++) {
+            boundViews += target.bindRow(toFlush.get(i).getPos());
+            redraws++;
+        }
+        toFlush.clear();
+        
+        if (redraws > redrawn) {
+            //bound from a frame callback (or from the frame message itself): drawn by this frame
+            long bound = System.nanoTime();
+            UpdateLatency.LIST.record(UpdateLatency.BIND, now, bound);
+            UpdateLatency.LIST.onBound(bound, oldest, true);
+            redrawListener.onRowsRedrawn();
+        }
+    }
+
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    /*
+     * updates of rows not on screen: model only
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /*
+     * updates that found their row already waiting for a redraw
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getFlushes() { //UI thread
+        return flushes;
+    }
+
+    public long getRedraws() { //UI thread
+        return redraws;
+    }
+
+    /*
+     * texts set by the in place binds (at most 3 per row)
+     */
+    public long getBoundViews() { //UI thread
+        return boundViews;
+    }
+
+    /*
+     * average ms a flush waited in the main queue
+     */
+    public double getAverageQueueLag() { //UI thread
+        return flushes == 0 ? 0 : totalLag / 1e6 / flushes;
+    }
+
+    public long getMaxQueueLag() { //UI thread
+        return maxLag / 1000000;
+    }
+
+    public String getStats() { //UI thread
+        return "updates " + this.getUpdates() + ", skipped " + this.getSkipped() + ", coalesced " + this.getCoalesced()
+                + ", flushes " + flushes + ", redraws " + redraws + ", views bound " + boundViews
+                + ", queue lag avg " + this.getAverageQueueLag() + "ms max " + this.getMaxQueueLag() + "ms"
+                + ", highlights max " + HighlightDecay.get().getMaxScheduled() + " in " + HighlightDecay.get().getBatches() + " batches";
+    }
+
+    /*
+     * (only referenced on JELLY_BEAN+)
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameScheduler implements Choreographer.FrameCallback {
+
+        void schedule() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void cancel() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.lightstreamer.demo.android.LightstreamerClient.LightstreamerClientProxy;
+import com.lightstreamer.demo.android.LightstreamerClient.MpnInfoFactory;
+import com.lightstreamer.demo.android.LightstreamerClient.StatusChangeListener;
+import com.lightstreamer.ls_client.mpn.MpnInfo;
+
+/*
+ * Process-wide owner of the LightstreamerClient: activities come and go
+ * (rotations, navigation) while the client, its session and its subscriptions
+ * stay. Each activity gets its own Attachment; the session is wanted while at
+ * least one attachment is started and a subscription is kept while at least
+ * one attachment holds it.
+ */
+class SharedLightstreamerClient implements StatusChangeListener {
+
+    private static final String TAG = "LS_CONN";
+
+    private static final String MPN_CACHE_FILE = "mpn.cache";
+    private static final String MPN_JOURNAL_FILE = "mpn.journal";
+
+    private static SharedLightstreamerClient instance = null; // guarded by the class
+
+    public static synchronized SharedLightstreamerClient get(Context context) {
+        if (instance == null) {
+            instance = new SharedLightstreamerClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final LightstreamerClient client = new LightstreamerClient();
+
+    private final List<Attachment> attachments = new CopyOnWriteArrayList<Attachment>();
+
+    private final Map<Subscription,Integer> holders = new IdentityHashMap<Subscription,Integer>(); // guarded by this
+    private int started = 0; // guarded by this
+
+    private SharedLightstreamerClient(Context context) {
+        client.setServer(context.getResources().getString(R.string.host));
+        MpnInfoFactory mpnInfoFactory = new MpnInfoFactory() {
+            @Override
+            public MpnInfo build(String group, String trigger) {
+                return DetailsFragment.buildMpnInfo(group, trigger);
+            }
+        };
+        client.setMpnCacheFile(new File(context.getFilesDir(), MPN_CACHE_FILE), mpnInfoFactory);
+        client.setMpnJournal(new File(context.getFilesDir(), MPN_JOURNAL_FILE), mpnInfoFactory);
+        client.setListener(this);
+    }
+
+    public LightstreamerClient getClient() {
+        return client;
+    }
+
+    public Attachment attach() {
+        Attachment attachment = new Attachment();
+        attachments.add(attachment);
+        Log.d(TAG,"Attached, " + attachments.size() + " attachment(s)");
+        return attachment;
+    }
+
+    @Override
+    public void onStatusChange(int status) {
+        for (Attachment attachment : attachments) {
+            StatusChangeListener listener = attachment.listener;
+            if (listener != null) {
+                listener.onStatusChange(status);
+            }
+        }
+    }
+
+    private synchronized void acquire(Subscription sub) {
+        Integer count = holders.get(sub);
+        if (count == null) {
+            holders.put(sub,1);
+            client.addSubscription(sub);
+        } else {
+            holders.put(sub,count+1);
+        }
+    }
+
+    private synchronized void release(Subscription sub) {
+        Integer count = holders.get(sub);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            holders.remove(sub);
+            client.removeSubscription(sub);
+        } else {
+            holders.put(sub,count-1);
+        }
+    }
+
+    public class Attachment implements LightstreamerClientProxy {
+
+        private volatile StatusChangeListener listener = null;
+
+        private final Map<Subscription,Boolean> held = new IdentityHashMap<Subscription,Boolean>(); // guarded by SharedLightstreamerClient.this
+        private boolean wantsConnection = false; // guarded by SharedLightstreamerClient.this
+        private boolean detached = false; // guarded by SharedLightstreamerClient.this
+
+        public void setListener(StatusChangeListener listener) {
+            this.listener = listener;
+        }
+
+        public LightstreamerClient getClient() {
+            return client;
+        }
+
+        @Override
+        public void start() {
+            synchronized(SharedLightstreamerClient.this) {
+                if (detached || wantsConnection) {
+                    return;
+                }
+                wantsConnection = true;
+                if (started++ == 0) {
+                    client.start();
+                }
+            }
+        }
+
+        @Override
+        public void stop(boolean applyPause) {
+            synchronized(SharedLightstreamerClient.this) {
+                if (!wantsConnection) {
+                    return;
+                }
+                wantsConnection = false;
+                if (--started == 0) {
+                    client.stop(applyPause);
+                }
+            }
+        }
+
+        @Override
+        public void addSubscription(Subscription sub) {
+            synchronized(SharedLightstreamerClient.this) {
+                if (detached || held.put(sub,true) != null) {
+                    return;
+                }
+                acquire(sub);
+            }
+        }
+
+        @Override
+        public void removeSubscription(Subscription sub) {
+            synchronized(SharedLightstreamerClient.this) {
+                if (held.remove(sub) == null) {
+                    return;
+                }
+                release(sub);
+            }
+        }
+
+        @Override
+        public void refreshSubscriptions(List<Subscription> subs) {
+            List<Subscription> ours = new ArrayList<Subscription>(subs.size());
+            synchronized(SharedLightstreamerClient.this) {
+                for (Subscription sub : subs) {
+                    if (held.containsKey(sub)) {
+                        ours.add(sub);
+                    }
+                }
+            }
+            if (!ours.isEmpty()) {
+                client.refreshSubscriptions(ours);
+            }
+        }
+
+        @Override
+        public void activateMPN(MpnInfo info) {
+            client.activateMPN(info);
+        }
+
+        @Override
+        public void deactivateMPN(MpnInfo info) {
+            client.deactivateMPN(info);
+        }
+
+        @Override
+        public void retrieveMpnStatus(String key) {
+            client.retrieveMpnStatus(key);
+        }
+
+        /*
+         * releases whatever the attachment still holds; a paused stop lets the
+         * session linger in case another activity is about to attach
+         */
+        public void detach() {
+            synchronized(SharedLightstreamerClient.this) {
+                if (detached) {
+                    return;
+                }
+                this.stop(true);
+                for (Subscription sub : new ArrayList<Subscription>(held.keySet())) {
+                    this.removeSubscription(sub);
+                }
+                detached = true;
+            }
+            listener = null;
+            attachments.remove(this);
+            Log.d(TAG,"Detached, " + attachments.size() + " attachment(s)");
+        }
+    }
+
+}
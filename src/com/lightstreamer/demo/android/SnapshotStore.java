@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.util.Log;
+
+/*
+ * Last known values of the items, so that a new run can show them (as stale)
+ * before the connection and the snapshots are there. The update paths don't
+ * come here: the models keep their last values and, as Sources, are only
+ * asked for a copy on save(); the store itself keeps the values loaded from
+ * the previous run and those of the models that went away (see put).
+ * The file is a format version, then for each item its name, a bitmask of
+ * the fields present and their values in QuoteSchema index order; it is
+ * read and written on a background thread (nothing is known until it has
+ * been read) and replaced only once complete.
+ */
+class SnapshotStore {
+
+    public interface Source {
+        /*
+         * adds a copy of the last values of its items to into, see merge
+         */
+        public void collect(Map<String,String[]> into);
+    }
+
+    private static final String TAG = "SnapshotStore";
+
+    private static final String SNAPSHOT_FILE = "snapshot.cache";
+
+    private static final int VERSION = 1;
+
+    private static SnapshotStore instance = null; // guarded by the class
+
+    public static synchronized SnapshotStore get(Context context) {
+        if (instance == null) {
+            instance = new SnapshotStore(new File(context.getApplicationContext().getFilesDir(), SNAPSHOT_FILE));
+            instance.startLoading();
+        }
+        return instance;
+    }
+
+    private final File file;
+    private final Map<String,String[]> values = new HashMap<String,String[]>(); // guarded by this
+    private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<Source>();
+
+    //also reads the file: a save waits for the load
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    SnapshotStore(File file) { //not loaded, see get(Context)
+        this.file = file;
+    }
+
+    public void addSource(Source source) {
+        sources.add(source);
+    }
+
+    public void removeSource(Source source) {
+        sources.remove(source);
+    }
+
+    /*
+     * keeps the values of an item whose model goes away (not on the update path)
+     */
+    public synchronized void put(String item, String[] forItem) {
+        merge(values, item, forItem);
+    }
+
+    /*
+     * copies the known (non null) values of the item by QuoteSchema index
+     * into the map, over those already there
+     */
+    static void merge(Map<String,String[]> into, String item, String[] forItem) {
+        String[] merged = into.get(item);
+        if (merged == null) {
+            merged = new String[QuoteSchema.COUNT];
+            into.put(item, merged);
+        }
+        for (int f = 0; f < QuoteSchema.COUNT; f++) {
+            if (forItem[f] != null) {
+                merged[f] = forItem[f];
+            }
+        }
+    }
+
+    /*
+     * a copy of the values of the item by QuoteSchema index (null for the
+     * unknown ones), null if nothing is known about the item (yet)
+     */
+    public synchronized String[] get(String item) {
+        String[] forItem = values.get(item);
+        return forItem == null ? null : forItem.clone();
+    }
+
+    /*
+     * cheap on the calling thread: only copies the values of the sources,
+     * the known ones go under them on the writer thread (once loaded)
+     */
+    public void save() {
+        final Map<String,String[]> current = new HashMap<String,String[]>();
+        for (Source source : sources) {
+            source.collect(current);
+        }
+        writer.execute(new Runnable() {
+            public void run() {
+                Map<String,String[]> copy;
+                synchronized(SnapshotStore.this) {
+                    copy = new HashMap<String,String[]>((values.size() + current.size())*2);
+                    for (Map.Entry<String,String[]> entry : values.entrySet()) {
+                        copy.put(entry.getKey(), entry.getValue().clone());
+                    }
+                }
+                for (Map.Entry<String,String[]> entry : current.entrySet()) {
+                    merge(copy, entry.getKey(), entry.getValue());
+                }
+                if (!copy.isEmpty()) {
+                    write(copy);
+                }
+            }
+        });
+    }
+
+    private void startLoading() {
+        writer.execute(new Runnable() {
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /*
+     * on the writer thread; the values put in the meanwhile are newer
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        Map<String,String[]> loaded = new HashMap<String,String[]>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION) {
+                Log.d(TAG,"Discarding snapshot cache written by a different version");
+                return;
+            }
+            int items = in.readInt();
+            for (int i = 0; i < items; i++) {
+                String item = in.readUTF();
+                int mask = in.readInt();
+                String[] forItem = new String[QuoteSchema.COUNT];
+                for (int f = 0; f < QuoteSchema.COUNT; f++) {
+                    if ((mask & (1 << f)) != 0) {
+                        forItem[f] = in.readUTF();
+                    }
+                }
+                loaded.put(item, forItem);
+            }
+            Log.d(TAG,"Loaded " + items + " items");
+        } catch (IOException e) {
+            Log.d(TAG,"Can't read snapshot cache: " + e.getMessage());
+            return;
+        } finally {
+            close(in);
+        }
+        synchronized(this) {
+            for (Map.Entry<String,String[]> entry : loaded.entrySet()) {
+                if (!values.containsKey(entry.getKey())) {
+                    values.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void write(Map<String,String[]> values) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeInt(values.size());
+            for (Map.Entry<String,String[]> entry : values.entrySet()) {
+                String[] forItem = entry.getValue();
+                int mask = 0;
+                for (int f = 0; f < forItem.length; f++) {
+                    if (forItem[f] != null) {
+                        mask |= 1 << f;
+                    }
+                }
+                out.writeUTF(entry.getKey());
+                out.writeInt(mask);
+                for (String value : forItem) {
+                    if (value != null) {
+                        out.writeUTF(value);
+                    }
+                }
+            }
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(file)) {
+                Log.d(TAG,"Can't replace snapshot cache");
+            }
+        } catch (IOException e) {
+            Log.d(TAG,"Can't write snapshot cache: " + e.getMessage());
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+
+import com.lightstreamer.demo.android.LightstreamerClient.StatusChangeListener;
+
+/*
+ * Brings the status changes of a client to a listener on the handler thread.
+ * A burst of changes is merged in a single message: when it runs the listener
+ * gets the status the client is in at that moment, and only if it differs from
+ * the last one it got. This also keeps the delivery in order, whatever the
+ * order the client threads notified the changes in.
+ */
+class StatusDispatcher implements StatusChangeListener {
+
+    private static final int NONE = -1;
+
+    private final Handler handler;
+    private final LightstreamerClient client;
+    private final StatusChangeListener target;
+
+    private final AtomicBoolean posted = new AtomicBoolean(false);
+    private final AtomicLong merged = new AtomicLong(0);
+
+    private int delivered = NONE; // do not get/set this outside the handler thread
+
+    private final Runnable deliverTask = new Runnable() {
+        public void run() {
+            deliver();
+        }
+    };
+
+    public StatusDispatcher(Handler handler, LightstreamerClient client, StatusChangeListener target) {
+        this.handler = handler;
+        this.client = client;
+        this.target = target;
+    }
+
+    @Override
+    public void onStatusChange(int status) {
+        if (posted.compareAndSet(false,true)) {
+            handler.post(deliverTask);
+        } else {
+            merged.incrementAndGet();
+        }
+    }
+
+    /*
+     * forgets the last delivered status and delivers the current one again
+     * (e.g. the views showing it were recreated); call from the handler thread
+     */
+    public void refresh() {
+        delivered = NONE;
+        this.onStatusChange(client.getStatus());
+    }
+
+    /*
+     * number of notifications that did not reach the listener
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    private void deliver() {
+        //reset before reading: a later change will post again
+        posted.set(false);
+        int status = client.getStatus();
+        if (status == delivered) {
+            merged.incrementAndGet();
+            return;
+        }
+        delivered = status;
+        target.onStatusChange(status);
+    }
+
+}
@@ -15,49 +15,82 @@
  */
 package com.lightstreamer.demo.android;
 
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
-import android.os.Handler;
 import android.widget.TextView;
 
-import com.lightstreamer.ls_client.UpdateInfo;
-
-public class Stock {
+public class Stock implements SnapshotStore.Source {
 
     //var fieldsList = ["last_price", "time", "pct_change", "bid_quantity", "bid", "ask", "ask_quantity", "min", "max", "ref_price", "open_price", "stock_name", 
     
-    private HashMap<String,TextView> holder = null;
-    private HashMap<String,UpdateRunnable> turnOffRunnables = new HashMap<String,UpdateRunnable>();
+    //by QuoteSchema index, null if not shown; reused at each update
+    private volatile Cell[] cells = null;
+    
+    /*
+     * Latest-value conflation between the client threads and the UI thread:
+     * an update only overwrites the latest state of its fields and marks them
+     * dirty, a single drain (posted if not pending yet) shows whatever is
+     * dirty when it runs. Fixed memory and at most one message in the main
+     * queue however fast the updates come.
+     */
+    private final String[] texts = new String[QuoteSchema.COUNT]; // guarded by this
+    private final int[] backgrounds = new int[QuoteSchema.COUNT]; // guarded by this
+    private int dirty = 0; // guarded by this
+    private boolean drainPending = false; // guarded by this
+    private boolean cancelled = false; // guarded by this
+    private long dirtySince; // guarded by this, see UpdateLatency
+    private long postedAt; // guarded by this
+    private long updates = 0; // guarded by this
+    private long merged = 0; // guarded by this
+    
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
 
-    private String[] numericFields;
-    private String[] otherFields;
     private Chart chart;
     
     private double lastPrice; //might improve by saving all the field values
 
+    private final String item;
+    private final SnapshotStore snapshots;
+    private int textColor;
     
-    public Stock(String item, String[] numericFields, String[] otherFields) {
-        this.numericFields = numericFields;
-        this.otherFields = otherFields;
+    public Stock(String item, SnapshotStore snapshots) {
+        this.item = item;
+        this.snapshots = snapshots;
+        snapshots.addSource(this);
     }
     
-    public void setHolder(HashMap<String,TextView> holder) { //UI thread
-        this.holder = holder;
+    /*
+     * the views by QuoteSchema index, null for the fields not shown
+     */
+    public void setHolder(TextView[] holder) { //UI thread
+        Cell[] cells = new Cell[QuoteSchema.COUNT];
         
-        this.resetHolder(holder, numericFields);
-        this.resetHolder(holder, otherFields);
-
-    }
-    
-    private void resetHolder(HashMap<String,TextView> holder, String[] fields) {  //UI thread
-        for (int i=0; i<fields.length; i++) {
+        //values of a previous run, shown as stale until the snapshot arrives
+        String[] cached = snapshots.get(item);
+        
+        for (int i=0; i<QuoteSchema.COUNT; i++) {
             
-            TextView field = holder.get(fields[i]);
+            TextView field = holder[i];
             if (field != null) {
-                field.setText("N/A");
+                textColor = field.getResources().getColor(R.color.white);
+                if (cached != null && cached[i] != null) {
+                    field.setText(cached[i]);
+                    field.setTextColor(field.getResources().getColor(R.color.stale_text));
+                } else {
+                    field.setText("N/A");
+                    field.setTextColor(textColor);
+                }
+                cells[i] = new Cell(field);
             }
             
         }
+        
+        this.cells = cells;
     }
     
     public void setChart(Chart chart) { //UI thread
@@ -69,106 +102,198 @@ public class Stock {
         return this.lastPrice;
     }
     
-    public void update(UpdateInfo newData, Handler handler) {
-        this.updateView(newData, handler, numericFields, true);
-        this.updateView(newData, handler, otherFields, false);
+    /*
+     * receivedAt: when the listener was called (nanoTime); the drain is
+     * posted to the UI thread through uiThread
+     */
+    public void update(QuoteUpdate update, Executor uiThread, long receivedAt) {
+        this.updateView(update, uiThread, receivedAt);
         
         //save lastPrice
-        String value = newData.getNewValue("last_price");
-        try {
-            this.lastPrice = Double.parseDouble(value);
-        } catch (NumberFormatException nfe) {
-            //unexpected o_O
+        if (update.isChanged(QuoteSchema.LAST_PRICE)) {
+            try {
+                this.lastPrice = QuoteCodec.parseDecimal(update.get(QuoteSchema.LAST_PRICE));
+            } catch (NumberFormatException nfe) {
+                //unexpected o_O
+            }
         }
         
         
-        chart.addPoint(newData);
+        chart.addPoint(update);
+        UpdateLatency.DETAILS.record(UpdateLatency.MODEL, receivedAt, System.nanoTime());
     }
     
-    private void updateView(UpdateInfo newData, Handler handler, String[] fields, boolean numeric) {
-        boolean snapshot = newData.isSnapshot();
-        for (int i=0; i<fields.length; i++) {
-            
-            if (newData.isValueChanged(fields[i])) {
-                String value = newData.getNewValue(fields[i]);
-                TextView field = holder.get(fields[i]);
-                
-                if (field != null) {
-                    
-                    double upDown = 0.0;
-                    int color;
-                    if (!snapshot ) {
-                        // update cell color 
-                        if (numeric) {
-                            String oldValue = newData.getOldValue(fields[i]);
-                            try {
-                                double valueNum = Double.parseDouble(value);
-                                double oldValueNum = Double.parseDouble(oldValue);
-                                upDown = valueNum - oldValueNum;
-                            } catch (NumberFormatException nfe) {
-                                //unexpected o_O
-                            }
-                        }
-                        
-                        if (upDown < 0) {
-                            color = R.color.lower_highlight; 
-                        } else {
-                            color = R.color.higher_highlight; 
-                        }
-                       
-                    } else {
-                        color = R.color.snapshot_highlight;
-                    }
-                    
-                   
-                    
-                    UpdateRunnable turnOff = turnOffRunnables.get(fields[i]);
-                    if (turnOff != null) {
-                        turnOff.invalidate();
-                    }
-                    turnOff = new UpdateRunnable(field,null,R.color.transparent);
-                    this.turnOffRunnables.put(fields[i], turnOff);
-                    
-                    handler.post(new UpdateRunnable(field,value,color));
-                    handler.postDelayed(turnOff, 600);
+    private void updateView(QuoteUpdate update, Executor uiThread, long receivedAt) {
+        if (this.conflate(update, receivedAt)) {
+            uiThread.execute(drain);
+        }
+    }
+    
+    /*
+     * overwrites the latest state of the changed fields; true if a drain has
+     * to be posted. No Android calls and no allocations (see the benchmarks)
+     */
+    synchronized boolean conflate(QuoteUpdate update, long receivedAt) {
+        updates++;
+        if (dirty != 0) {
+            //the previous one was never shown
+            merged++;
+        } else {
+            dirtySince = receivedAt;
+        }
+        boolean snapshot = update.isSnapshot();
+        //the changed fields only, lowest index first
+        for (int changed = update.getChanged(); changed != 0; changed &= changed - 1) {
+            int field = Integer.numberOfTrailingZeros(changed);
+            texts[field] = update.get(field);
+            backgrounds[field] = highlight(update, field, snapshot);
+        }
+        dirty |= update.getChanged();
+        
+        if (drainPending || cancelled) {
+            return false;
+        }
+        drainPending = true;
+        postedAt = System.nanoTime();
+        return true;
+    }
+    
+    private void drain() { //UI thread
+        long now = System.nanoTime();
+        long oldest;
+        Cell[] cells = this.cells;
+        int toDraw = 0;
+        synchronized(this) {
+            if (cancelled) {
+                return;
+            }
+            drainPending = false;
+            UpdateLatency.DETAILS.record(UpdateLatency.QUEUE, postedAt, now);
+            oldest = dirtySince;
+            for (int pending = dirty; pending != 0; pending &= pending - 1) {
+                int field = Integer.numberOfTrailingZeros(pending);
+                Cell cell = cells == null ? null : cells[field];
+                if (cell != null) {
+                    cell.text = texts[field];
+                    cell.background = backgrounds[field];
+                    toDraw |= QuoteSchema.bit(field);
+                }
+            }
+            dirty = 0;
+        }
+        
+        if (toDraw == 0) {
+            return;
+        }
+        long until = StockForList.now() + HighlightDecay.DURATION;
+        for (int drawing = toDraw; drawing != 0; drawing &= drawing - 1) {
+            cells[Integer.numberOfTrailingZeros(drawing)].draw(until);
+        }
+        long bound = System.nanoTime();
+        UpdateLatency.DETAILS.record(UpdateLatency.BIND, now, bound);
+        UpdateLatency.DETAILS.onBound(bound, oldest, false);
+    }
+    
+    /*
+     * drops what is still to be shown and stops drawing, e.g. the views are
+     * given to another item or destroyed (a drain already posted finds nothing
+     * to do); the highlights are turned off now
+     */
+    public void cancel() { //UI thread
+        synchronized(this) {
+            cancelled = true;
+            dirty = 0;
+            drainPending = false;
+        }
+        Cell[] cells = this.cells;
+        this.cells = null;
+        if (cells != null) {
+            for (Cell cell : cells) {
+                if (cell != null) {
+                    HighlightDecay.get().cancel(cell);
+                    cell.turnOff();
                 }
-                
             }
         }
+        snapshots.removeSource(this);
+        snapshots.put(item, this.getTexts());
     }
     
+    private synchronized String[] getTexts() {
+        return texts.clone();
+    }
     
+    /*
+     * texts holds the last value of each field, see SnapshotStore.Source
+     */
+    @Override
+    public synchronized void collect(Map<String,String[]> into) {
+        SnapshotStore.merge(into, item, texts);
+    }
     
-    private class UpdateRunnable implements Runnable {
-        private int background;
-        private TextView view;
+    public synchronized long getUpdates() {
+        return updates;
+    }
+    
+    /*
+     * updates overwritten by a later one before being shown
+     */
+    public synchronized long getMergedUpdates() {
+        return merged;
+    }
+    
+    
+    
+    /*
+     * the background of a changed field; no Android calls and no allocations (see the benchmarks)
+     */
+    static int highlight(QuoteUpdate update, int field, boolean snapshot) {
+        if (snapshot) {
+            return R.color.snapshot_highlight;
+        }
+        
+        int upDown = 0;
+        // update cell color 
+        if ((QuoteSchema.NUMERIC & QuoteSchema.bit(field)) != 0) {
+            try {
+                //no need to parse just for the direction
+                upDown = QuoteCodec.compareDecimal(update.get(field), update.getOld(field));
+            } catch (NumberFormatException nfe) {
+                //unexpected o_O
+            }
+        }
+        
+        return upDown < 0 ? R.color.lower_highlight : R.color.higher_highlight;
+    }
+    
+    /*
+     * a field on screen, drawn by the drain; the HighlightDecay turns its
+     * highlight off
+     */
+    private class Cell extends HighlightDecay.Cell {
+        private final TextView view;
+        //set by the drain
         private String text;
-        private boolean valid = true;
+        private int background;
 
-        UpdateRunnable(TextView view, String text, int background) {
+        Cell(TextView view) {
             this.view = view;
-            this.text = text;
-            this.background = background;
         }
 
-        public synchronized void run() {
-            if (this.valid) {
-                if (this.text != null) {
-                    view.setText(text);
-                }
-                view.setBackgroundResource(background);
-                view.invalidate();
-            }
+        void draw(long highlightUntil) { //UI thread
+            view.setText(text);
+            view.setTextColor(textColor);
+            view.setBackgroundResource(background);
+            view.invalidate();
+            
+            HighlightDecay.get().schedule(this, highlightUntil);
         }
 
-        public synchronized void invalidate() {
-            this.valid = false;
+        @Override
+        void turnOff() {
+            view.setBackgroundResource(R.color.transparent);
+            view.invalidate();
         }
     }
 
-
-
-    
-    
-    
 }
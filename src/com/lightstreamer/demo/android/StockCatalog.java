@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.util.Log;
+
+/*
+ * The items shown by the list. Only the names are kept for the whole catalog:
+ * the StockForList models are created when a row is shown or updated and the
+ * least recently used ones are dropped once there are more than MAX_MODELS
+ * (the values of a dropped model go to the SnapshotStore, and it is recreated
+ * when needed from them, shown as stale until the item is updated again).
+ * The models keep their last values, the SnapshotStore copies them on save.
+ * Thread safe: updates come from the client threads, rows from the UI thread.
+ */
+class StockCatalog implements SnapshotStore.Source {
+
+    private static final String TAG = "StockCatalog";
+
+    /*
+     * if present, one item name per line (e.g. downloaded or provisioned at runtime)
+     */
+    private static final String CATALOG_FILE = "catalog.txt";
+
+    private static final int MAX_MODELS = 100;
+
+    private final List<String> names;
+    private final Map<String,Integer> positions;
+    private final SnapshotStore snapshots;
+
+    private final LinkedHashMap<Integer,StockForList> models = new LinkedHashMap<Integer,StockForList>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer,StockForList> eldest) {
+            if (size() <= MAX_MODELS) {
+                return false;
+            }
+            StockForList stock = eldest.getValue();
+            snapshots.put(stock.getItem(), stock.getValues());
+            return true;
+        }
+    }; // guarded by this
+
+    public StockCatalog(List<String> names, SnapshotStore snapshots) {
+        this.names = names;
+        this.snapshots = snapshots;
+        this.positions = new HashMap<String,Integer>(names.size()*2);
+        for (int i = 0; i < names.size(); i++) {
+            positions.put(names.get(i), i);
+        }
+        snapshots.addSource(this);
+    }
+
+    /*
+     * reads the catalog file, falls back on the given items
+     */
+    public static StockCatalog load(Context context, String[] defaults) {
+        File file = new File(context.getFilesDir(), CATALOG_FILE);
+        if (file.exists()) {
+            BufferedReader in = null;
+            try {
+                in = new BufferedReader(new FileReader(file));
+                List<String> names = new ArrayList<String>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() > 0) {
+                        names.add(line);
+                    }
+                }
+                if (!names.isEmpty()) {
+                    Log.d(TAG,"Loaded " + names.size() + " items");
+                    return new StockCatalog(names, SnapshotStore.get(context));
+                }
+            } catch (IOException e) {
+                Log.d(TAG,"Can't read catalog: " + e.getMessage());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+        return new StockCatalog(Arrays.asList(defaults), SnapshotStore.get(context));
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int position) {
+        return names.get(position);
+    }
+
+    /*
+     * names of the items in [first,last]
+     */
+    public String[] getNames(int first, int last) {
+        return names.subList(first, last + 1).toArray(new String[last - first + 1]);
+    }
+
+    /*
+     * -1 if the item is not in the catalog
+     */
+    public int getPosition(String name) {
+        Integer position = positions.get(name);
+        return position == null ? -1 : position;
+    }
+
+    public StockForList getStock(int position) {
+        return this.getStock(Integer.valueOf(position));
+    }
+
+    /*
+     * takes the Integer of the positions map: no boxing on the update path
+     */
+    private synchronized StockForList getStock(Integer position) {
+        StockForList stock = models.get(position);
+        if (stock == null) {
+            String name = names.get(position);
+            stock = new StockForList(name, position);
+            String[] cached = snapshots.get(name);
+            if (cached != null) {
+                stock.restore(cached);
+            }
+            models.put(position, stock);
+        }
+        return stock;
+    }
+
+    @Override
+    public synchronized void collect(Map<String,String[]> into) {
+        for (StockForList stock : models.values()) {
+            stock.collect(into);
+        }
+    }
+
+    /*
+     * null if the item is not in the catalog
+     */
+    public StockForList getStock(String name) {
+        Integer position = positions.get(name);
+        return position == null ? null : this.getStock(position);
+    }
+
+}
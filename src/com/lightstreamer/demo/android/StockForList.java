@@ -15,19 +15,20 @@
  */
 package com.lightstreamer.demo.android;
 
-import java.text.DecimalFormat;
+import java.util.Map;
 
-import android.view.View;
-import android.widget.ListView;
-
-import com.lightstreamer.demo.android.MainSubscription.Context;
 import com.lightstreamer.demo.android.StocksAdapter.RowHolder;
-import com.lightstreamer.ls_client.UpdateInfo;
 
 public class StockForList {
     
+    private final String item;
+    //last values by QuoteSchema index (null if unknown), see SnapshotStore
+    private final String[] values = new String[QuoteSchema.COUNT];
+    
     private String stockName = "N/A";
-    private String lastPrice = "N/A";
+    //no String per update, see QuoteCodec
+    private final char[] lastPrice = new char[QuoteCodec.MAX_LENGTH];
+    private int lastPriceLength = QuoteCodec.formatNotAvailable(lastPrice);
     private double lastPriceNum;
     private String time = "N/A";
     
@@ -36,28 +37,67 @@ public class StockForList {
     private int timeColor = R.color.background; 
     
     private int pos;
-    private TurnOffRunnable turningOff;
+    private boolean stale = false;
+    private long highlightUntil = 0;
+    //QuoteSchema bits of the fields changed since the last bind
+    private int unbound = QuoteSchema.LIST.getFields();
+    
+    boolean dirty = false; // guarded by the RowDispatcher
+    long dirtySince; // guarded by the RowDispatcher, see UpdateLatency
     
-    private DecimalFormat format = new DecimalFormat("#.00");
-
     
     public StockForList(String item, int pos) {
+        this.item = item;
         this.pos = pos;
     }
     
-    public void update(UpdateInfo newData, final Context context) {
-        boolean isSnapshot = newData.isSnapshot();
-        if (newData.isValueChanged("stock_name")) {
-            stockName = newData.getNewValue("stock_name");
+    /*
+     * shows the values of a previous run (see SnapshotStore) until the first update
+     */
+    public synchronized void restore(String[] cached) {
+        System.arraycopy(cached, 0, values, 0, QuoteSchema.COUNT);
+        if (cached[QuoteSchema.STOCK_NAME] != null) {
+            stockName = cached[QuoteSchema.STOCK_NAME];
+        }
+        if (cached[QuoteSchema.TIME] != null) {
+            time = cached[QuoteSchema.TIME];
+        }
+        if (cached[QuoteSchema.LAST_PRICE] != null) {
+            try {
+                lastPriceNum = QuoteCodec.parseDecimal(cached[QuoteSchema.LAST_PRICE]);
+                lastPriceLength = QuoteCodec.formatPrice(lastPriceNum, lastPrice);
+            } catch (NumberFormatException nfe) {
+                //unexpected o_O
+            }
+        }
+        stale = true;
+        unbound = QuoteSchema.LIST.getFields();
+    }
+    
+    /*
+     * only updates the model, see RowDispatcher for the redraw;
+     * no Android calls and no allocations (see the benchmarks)
+     */
+    synchronized void apply(QuoteUpdate update) {
+        stale = false;
+        highlightUntil = now() + HighlightDecay.DURATION;
+        boolean isSnapshot = update.isSnapshot();
+        unbound |= update.getChanged();
+        for (int changed = update.getChanged(); changed != 0; changed &= changed - 1) {
+            int index = Integer.numberOfTrailingZeros(changed);
+            values[index] = update.get(index);
+        }
+        if (update.isChanged(QuoteSchema.STOCK_NAME)) {
+            stockName = update.get(QuoteSchema.STOCK_NAME);
             stockNameColor = isSnapshot ? R.color.snapshot_highlight : R.color.higher_highlight;
         }
-        if (newData.isValueChanged("time")) {
-            time = newData.getNewValue("time");
+        if (update.isChanged(QuoteSchema.TIME)) {
+            time = update.get(QuoteSchema.TIME);
             timeColor = isSnapshot ? R.color.snapshot_highlight : R.color.higher_highlight;
         }
-        if (newData.isValueChanged("last_price")) {
-            double newPrice = Double.parseDouble(newData.getNewValue("last_price"));
-            lastPrice = format.format(newPrice);
+        if (update.isChanged(QuoteSchema.LAST_PRICE)) {
+            double newPrice = QuoteCodec.parseDecimal(update.get(QuoteSchema.LAST_PRICE));
+            lastPriceLength = QuoteCodec.formatPrice(newPrice, lastPrice);
             
             if (isSnapshot) {
                 lastPriceColor = R.color.snapshot_highlight;
@@ -66,84 +106,117 @@ public class StockForList {
                 lastPriceNum = newPrice;
             }
         }
-        
-        if (this.turningOff != null) {
-            this.turningOff.disable();
-        }
-        
-        
-        
-        context.handler.post(new Runnable() {
-
-            @Override
-            public void run() {
-                RowHolder holder = extractHolder(context.listView);
-                if (holder != null) {
-                    fill(holder);
-                }
-            }
-            
-        });
-        
-        this.turningOff = new TurnOffRunnable(context);
-        context.handler.postDelayed(this.turningOff,600);
     }
     
 
-    public void fill(RowHolder holder) {
-        holder.stock_name.setText(stockName);
-        holder.last_price.setText(lastPrice);
-        holder.time.setText(time);
-        
-        this.fillColor(holder);
+    public int getPos() {
+        return pos;
     }
     
-    public void fillColor(RowHolder holder) {
-        holder.stock_name.setBackgroundResource(stockNameColor);
-        holder.last_price.setBackgroundResource(lastPriceColor);
-        holder.time.setBackgroundResource(timeColor);
+    public String getItem() {
+        return item;
     }
-
-    RowHolder extractHolder(ListView listView) {
-        View row = listView.getChildAt(pos - listView.getFirstVisiblePosition());
-        if(row == null) {
-            return null;
-        }
-        return (RowHolder) row.getTag();
+    
+    /*
+     * a copy of the last values by QuoteSchema index
+     */
+    synchronized String[] getValues() {
+        return values.clone();
     }
     
+    /*
+     * see SnapshotStore.Source
+     */
+    synchronized void collect(Map<String,String[]> into) {
+        SnapshotStore.merge(into, item, values);
+    }
     
-    private class TurnOffRunnable implements Runnable {
-
-        private boolean valid = true;
-        private Context context;
+    /*
+     * binds everything, the row might have shown another stock
+     */
+    public synchronized void fill(RowHolder holder) {
+        //rows are recycled, see RowHolder.highlight
+        holder.stock = this;
+        unbound = 0;
+        
+        holder.stock_name.setText(stockName);
+        //the TextView keeps the array: copy to the one of the row
+        System.arraycopy(lastPrice, 0, holder.last_price_text, 0, lastPriceLength);
+        holder.last_price.setText(holder.last_price_text, 0, lastPriceLength);
+        holder.time.setText(time);
+        
+        int textColor = holder.stock_name.getResources().getColor(stale ? R.color.stale_text : R.color.white);
+        holder.stock_name.setTextColor(textColor);
+        holder.last_price.setTextColor(textColor);
+        holder.time.setTextColor(textColor);
+        holder.stale = stale;
         
-        public TurnOffRunnable(Context context) {
-            this.context = context;
+        this.fillColor(holder);
+    }
+    
+    /*
+     * sets the text of the changed fields only (a text of the same width
+     * doesn't trigger a layout pass, see row_layout) then the highlights;
+     * the row shows us already (see StocksAdapter.bindRow); returns the
+     * number of texts set
+     */
+    public synchronized int bindChanges(RowHolder holder) {
+        int bound = 0;
+        if ((unbound & QuoteSchema.bit(QuoteSchema.STOCK_NAME)) != 0) {
+            holder.stock_name.setText(stockName);
+            bound++;
+        }
+        if ((unbound & QuoteSchema.bit(QuoteSchema.LAST_PRICE)) != 0) {
+            System.arraycopy(lastPrice, 0, holder.last_price_text, 0, lastPriceLength);
+            holder.last_price.setText(holder.last_price_text, 0, lastPriceLength);
+            bound++;
         }
+        if ((unbound & QuoteSchema.bit(QuoteSchema.TIME)) != 0) {
+            holder.time.setText(time);
+            bound++;
+        }
+        unbound = 0;
         
-        public synchronized void disable() {
-            valid = false;
+        if (holder.stale != stale) {
+            int textColor = holder.stock_name.getResources().getColor(stale ? R.color.stale_text : R.color.white);
+            holder.stock_name.setTextColor(textColor);
+            holder.last_price.setTextColor(textColor);
+            holder.time.setTextColor(textColor);
+            holder.stale = stale;
         }
-
-        @Override
-        public synchronized void run() {
-            if (!valid) {
-                return;
-            }
+        
+        //unchanged backgrounds are skipped by the views themselves
+        this.fillColor(holder);
+        return bound;
+    }
+    
+    /*
+     * changes not shown by any row yet
+     */
+    public synchronized boolean hasUnbound() {
+        return unbound != 0;
+    }
+    
+    /*
+     * also turns the highlights off once expired, or has the HighlightDecay
+     * call back when they do
+     */
+    public synchronized void fillColor(RowHolder holder) {
+        if (highlightUntil != 0 && now() >= highlightUntil) {
+            highlightUntil = 0;
             stockNameColor = R.color.transparent;
             lastPriceColor = R.color.transparent;
             timeColor = R.color.transparent;
-            
-            
-            RowHolder holder = extractHolder(context.listView);
-            if(holder != null) {
-                fillColor(holder);
-            }
+        } else if (highlightUntil != 0) {
+            HighlightDecay.get().schedule(holder.highlight, highlightUntil);
         }
-        
-        
-        
+        holder.stock_name.setBackgroundResource(stockNameColor);
+        holder.last_price.setBackgroundResource(lastPriceColor);
+        holder.time.setBackgroundResource(timeColor);
+    }
+
+    static long now() {
+        return System.nanoTime() / 1000000;
     }
     
 }
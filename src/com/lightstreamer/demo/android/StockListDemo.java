@@ -15,6 +15,7 @@
  */
 package com.lightstreamer.demo.android;
 
+import java.util.List;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
@@ -59,19 +60,21 @@ public class StockListDemo extends ActionBarActivity implements
     private static final String TAG = "StockListDemo";
     
     private boolean userDisconnect = false;
-    private LightstreamerClient lsClient = new LightstreamerClient();
+    private SharedLightstreamerClient.Attachment lsClient;
     private boolean pnEnabled = false;
     
     private GestureDetectorCompat mDetector; 
     
     
     private Handler handler;
+    private StatusDispatcher statusDispatcher;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
-        lsClient.setServer(getResources().getString(R.string.host));
+        //the client outlives the activity: rotations do not cost a new session
+        lsClient = SharedLightstreamerClient.get(this).attach();
         
         checkPlayServices();
         
@@ -120,6 +123,7 @@ public class StockListDemo extends ActionBarActivity implements
         
         
         this.handler = new Handler();
+        this.statusDispatcher = new StatusDispatcher(handler, lsClient.getClient(), this);
         
         if (Build.VERSION.SDK_INT>= Build.VERSION_CODES.HONEYCOMB) {
             hideActionBarTitle();//TODO do it with styles
@@ -149,20 +153,20 @@ public class StockListDemo extends ActionBarActivity implements
     
     private void enablePN(boolean enabled) {
         pnEnabled = enabled;
-        lsClient.enablePN(enabled);
+        lsClient.getClient().enablePN(enabled);
         DetailsFragment detailsFrag = getDetailsFragment();
         if (detailsFrag != null) {
             detailsFrag.enablePN(enabled);
         }
     }
     
-    private int getIntentItem() {
-        int openItem = 0;
+    private String getIntentItem() {
+        String openItem = null;
         Intent launchIntent = getIntent();
         if (launchIntent != null) {
             Bundle extras = launchIntent.getExtras();
             if (extras != null) {
-                openItem = extras.getInt("itemNum");
+                openItem = extras.getString("item");
             }
         }
         return openItem;
@@ -178,32 +182,40 @@ public class StockListDemo extends ActionBarActivity implements
     public void onPause() {
         super.onPause();
         this.stop(true);
+        SnapshotStore.get(this).save();
+        UpdateLatency.exportAll(getFilesDir());
+    }
+    
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        lsClient.detach();
     }
     
     @Override 
     public void onResume() {
         super.onResume();
         checkPlayServices();
-        handler.post(new StatusChange(lsClient.getStatus()));
-        lsClient.setListener(this);
+        statusDispatcher.refresh();
+        lsClient.setListener(statusDispatcher);
         if (!userDisconnect) {
             this.start();
         }
         
-        int openItem = getIntentItem();
-        if (openItem == 0 && findViewById(R.id.fragment_container) == null) {
+        String openItem = getIntentItem();
+        if (openItem == null && findViewById(R.id.fragment_container) == null) {
             //tablet, always start with an open stock
             DetailsFragment df = getDetailsFragment();
             if (df != null) {
                 openItem = df.getCurrentStock();
             }
             
-            if (openItem == 0) {
-                openItem = 2;
+            if (openItem == null) {
+                openItem = StocksFragment.getDefaultItem();
             }
         }
         
-        if (openItem != 0) {
+        if (openItem != null) {
             onStockSelected(openItem);
         }
     }
@@ -290,7 +302,7 @@ public class StockListDemo extends ActionBarActivity implements
     }
     
     @Override
-    public void onStockSelected(int item) {
+    public void onStockSelected(String item) {
         Log.v(TAG,"Stock detail selected");
 
         DetailsFragment detailsFrag = getDetailsFragment();
@@ -302,7 +314,7 @@ public class StockListDemo extends ActionBarActivity implements
         } else {
             DetailsFragment newFragment = new DetailsFragment();
             Bundle args = new Bundle();
-            args.putInt(DetailsFragment.ARG_ITEM, item);
+            args.putString(DetailsFragment.ARG_ITEM, item);
             args.putBoolean(DetailsFragment.ARG_PN_CONTROLS, pnEnabled);
             newFragment.setArguments(args);
             
@@ -329,10 +341,10 @@ public class StockListDemo extends ActionBarActivity implements
      
     //Status handling
 
+    //called by the StatusDispatcher on the UI thread
     @Override
     public void onStatusChange(int status) {
-        handler.post(new StatusChange(status));
-        
+        new StatusChange(status).run();
     }
     
     private class StatusChange implements Runnable {
@@ -435,6 +447,11 @@ public class StockListDemo extends ActionBarActivity implements
         lsClient.removeSubscription(sub);
     }
 
+    @Override
+    public void refreshSubscriptions(List<Subscription> subs) {
+        lsClient.refreshSubscriptions(subs);
+    }
+
     @Override
     public void activateMPN(MpnInfo info) {
         lsClient.activateMPN(info);
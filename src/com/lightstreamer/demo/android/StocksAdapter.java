@@ -15,56 +15,193 @@
  */
 package com.lightstreamer.demo.android;
 
-import java.util.ArrayList;
-
-
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-public class StocksAdapter extends ArrayAdapter<StockForList> {
+/*
+ * rows are paged in: the list grows by PAGE_SIZE rows when it gets close to its end.
+ * A row changed by an update is not notified (a notify costs a layout pass):
+ * the RowDispatcher has its holder, if any, bind the changed fields in place,
+ * see StockForList.bindChanges. Rows without a holder keep their changes
+ * unbound until bound or attached again (RecyclerView reattaches its cached
+ * holders without binding them)
+ */
+public class StocksAdapter extends RecyclerView.Adapter<StocksAdapter.RowHolder> implements RowDispatcher.Target {
 
+    private static final int PAGE_SIZE = 50;
+    
+    public interface OnRowClickListener {
+        public void onRowClick(int position);
+    }
+    
     private Activity activity; 
+    private StockCatalog catalog;
+    private int count;
+    
+    private OnRowClickListener clickListener = null;
+    private RecyclerView recyclerView = null;
+    //the selected row when in two-pane layout, see setChoiceMode
+    private boolean choiceMode = false;
+    private int checked = RecyclerView.NO_POSITION;
     
     
-    public StocksAdapter(Activity activity, int layout, ArrayList<StockForList> list) {
-        super(activity,layout,list);
+    public StocksAdapter(Activity activity, StockCatalog catalog) {
         this.activity = activity;
+        this.catalog = catalog;
+        this.count = Math.min(PAGE_SIZE, catalog.size());
+        //the catalog never changes order: the position is the identity of the item
+        this.setHasStableIds(true);
+    }
+    
+    public void setOnRowClickListener(OnRowClickListener clickListener) {
+        this.clickListener = clickListener;
+    }
+    
+    /*
+     * called while scrolling (not from the scroll callbacks), loads the next
+     * page if lastVisible is in the last one
+     */
+    public void onLastVisible(int lastVisible) {
+        if (count < catalog.size() && lastVisible >= count - PAGE_SIZE) {
+            int loaded = count;
+            count = Math.min(count + PAGE_SIZE, catalog.size());
+            notifyItemRangeInserted(loaded, count - loaded);
+        }
+    }
+    
+    /*
+     * the checked row is shown as activated (since HONEYCOMB, as the ListView did)
+     */
+    public void setChoiceMode(boolean choiceMode) {
+        this.choiceMode = choiceMode;
+    }
+    
+    public void setItemChecked(int position) {
+        if (!choiceMode || position == checked) {
+            return;
+        }
+        if (checked != RecyclerView.NO_POSITION) {
+            notifyItemChanged(checked);
+        }
+        checked = position;
+        notifyItemChanged(checked);
     }
     
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        View row = convertView;
-        RowHolder holder;
-        
-        if(row == null) {
-            LayoutInflater inflater = this.activity.getLayoutInflater();
-            row = inflater.inflate(R.layout.row_layout, parent, false);
-            
-            holder = new RowHolder();
-            holder.stock_name = (TextView)row.findViewById(R.id.stock_name);
-            holder.last_price = (TextView)row.findViewById(R.id.last_price);
-            holder.time = (TextView)row.findViewById(R.id.time);
-            
-            row.setTag(holder);
-            
-        } else {
-            holder = (RowHolder)row.getTag();
+    public int bindRow(int position) {
+        if (recyclerView == null) {
+            return 0;
+        }
+        //the position is the id, see getItemId
+        RowHolder holder = (RowHolder) recyclerView.findViewHolderForItemId(position);
+        StockForList stock = getItem(position);
+        if (holder == null || holder.stock != stock) {
+            return 0;
         }
+        return stock.bindChanges(holder);
+    }
+    
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    public StockForList getItem(int position) {
+        return catalog.getStock(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getPos();
+    }
+    
+    @Override
+    public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        LayoutInflater inflater = this.activity.getLayoutInflater();
+        View row = inflater.inflate(R.layout.row_layout, parent, false);
         
+        RowHolder holder = new RowHolder(row);
+        holder.stock_name = (TextView)row.findViewById(R.id.stock_name);
+        holder.last_price = (TextView)row.findViewById(R.id.last_price);
+        holder.time = (TextView)row.findViewById(R.id.time);
+        row.setOnClickListener(holder);
+        return holder;
+    }
+    
+    @Override
+    public void onBindViewHolder(RowHolder holder, int position) {
         StockForList stock = getItem(position);
         stock.fill(holder);
-        
-        return row;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            setActivated(holder, choiceMode && position == checked);
+        }
     }
     
-    public class RowHolder {
+    /*
+     * a holder back from the cache still shows its stock: the changes it
+     * missed while off screen
+     */
+    @Override
+    public void onViewAttachedToWindow(RowHolder holder) {
+        if (holder.stock != null && holder.stock.hasUnbound()) {
+            holder.stock.bindChanges(holder);
+        }
+    }
+    
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+    
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        this.recyclerView = null;
+    }
+    
+    @Override
+    public void onViewRecycled(RowHolder holder) {
+        HighlightDecay.get().cancel(holder.highlight);
+    }
+    
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setActivated(RowHolder holder, boolean activated) {
+        holder.itemView.setActivated(activated);
+    }
+    
+    public class RowHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         TextView stock_name;
         TextView last_price;
         TextView time;
+        final char[] last_price_text = new char[QuoteCodec.MAX_LENGTH];
+        StockForList stock; // the one shown
+        boolean stale; // the text color shown
+        
+        final HighlightDecay.Cell highlight = new HighlightDecay.Cell() {
+            @Override
+            void turnOff() {
+                if (stock != null) {
+                    stock.fillColor(RowHolder.this);
+                }
+            }
+        };
+        
+        RowHolder(View row) {
+            super(row);
+        }
+        
+        @Override
+        public void onClick(View v) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && clickListener != null) {
+                clickListener.onRowClick(position);
+            }
+        }
     }
     
 }
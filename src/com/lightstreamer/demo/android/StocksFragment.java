@@ -15,81 +15,239 @@
  */
 package com.lightstreamer.demo.android;
 
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.lightstreamer.demo.android.LightstreamerClient.LightstreamerClientProxy;
+import com.lightstreamer.demo.android.StocksAdapter.RowHolder;
 
 import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.support.v4.app.ListFragment;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 
-public class StocksFragment extends ListFragment {
+public class StocksFragment extends Fragment implements StocksAdapter.OnRowClickListener {
     
     onStockSelectedListener listener;
     
     public interface onStockSelectedListener {
         /** Called by HeadlinesFragment when a list item is selected */
-        public void onStockSelected(int item);
+        public void onStockSelected(String item);
     }
     
+    //used when there is no catalog file, see StockCatalog
     final static String[] items = {"item1", "item2", "item3",
             "item4", "item5", "item6", "item7", "item8", "item9", "item10",
             "item11", "item12", "item13", "item14", "item15", "item16", 
             "item17", "item18", "item19", "item20" };
    
     
-    public final static String[] subscriptionFields = {"stock_name", "last_price", "time"};
-    
     private Handler handler;
     LightstreamerClientProxy lsClient;
     
-    private static ArrayList<StockForList> list;
+    //rows subscribed before the list is laid out, then see SubscriptionWindow (0 to subscribe all the items)
+    private static final int INITIAL_WINDOW = 14;
+    
+    //shared by the fragment instances, so that a new instance finds it already subscribed
+    //set once by init, read on the UI thread after catalogLoaded
+    private static StockCatalog catalog; // guarded by the class
+    private static MainSubscription mainSubscription; // guarded by the class
+    
+    //the catalog is read from a file: not on the UI thread
+    private static final ExecutorService catalogLoader = Executors.newSingleThreadExecutor();
+    
+    /*
+     * the item shown when none was selected yet
+     */
+    static synchronized String getDefaultItem() {
+        if (catalog == null) {
+            return items[1];
+        }
+        return catalog.getName(Math.min(1, catalog.size() - 1));
+    }
     
-    static {
-        list = new ArrayList<StockForList>(items.length);
-        for (int i = 0; i < items.length; i++) {
-            list.add(new StockForList(items[i],i));
+    private static synchronized void init(Context context) { //catalogLoader thread
+        if (catalog == null) {
+            catalog = StockCatalog.load(context, items);
+            mainSubscription = new MainSubscription(catalog, INITIAL_WINDOW);
         }
     }
     
-    private MainSubscription mainSubscription = new MainSubscription(list);
+    /*
+     * onCatalogLoaded is posted once the catalog is there
+     */
+    private void loadCatalog(final Context context) {
+        catalogLoader.execute(new Runnable() {
+            public void run() {
+                init(context);
+                handler.post(catalogLoaded);
+            }
+        });
+    }
+    
+    private final Runnable catalogLoaded = new Runnable() {
+        public void run() {
+            onCatalogLoaded();
+        }
+    };
+    
+    private boolean attached = false; // UI thread only
+    private boolean started = false; // UI thread only
+    private boolean subscribed = false; // UI thread only
+    
+    private StocksAdapter adapter; // null until the catalog is loaded
+    private RecyclerView list;
+    private LinearLayoutManager layoutManager;
+    
+    private int lastVisible = -1; // UI thread only
+    //the adapter can't change from within the scroll callbacks
+    private final Runnable pageRequest = new Runnable() {
+        public void run() {
+            adapter.onLastVisible(lastVisible);
+        }
+    };
+    
+    private FrequencyController frequencyController;
+    private RowDispatcher rowDispatcher;
+    private SubscriptionWindow subscriptionWindow;
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, 
         Bundle savedInstanceState) {
 
-        return inflater.inflate(R.layout.list_view, container, false);
+        View view = inflater.inflate(R.layout.list_view, container, false);
+        
+        layoutManager = new LinearLayoutManager(getActivity());
+        list = (RecyclerView) view.findViewById(R.id.list);
+        list.setLayoutManager(layoutManager);
+        list.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
+        //rows have a fixed height: a changed row doesn't resize the list
+        list.setHasFixedSize(true);
+        //a changed row is bound in place (see StocksAdapter.bindRow), nothing to animate
+        list.setItemAnimator(null);
+        if (adapter != null) {
+            list.setAdapter(adapter);
+        }
+        
+        list.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                //also called once laid out
+                if (rowDispatcher == null) {
+                    return;
+                }
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                if (firstVisibleItem == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                int visibleItemCount = layoutManager.findLastVisibleItemPosition() - firstVisibleItem + 1;
+                frequencyController.setVisibleRows(visibleItemCount);
+                rowDispatcher.onVisibleRange(firstVisibleItem, visibleItemCount);
+                if (subscriptionWindow != null) {
+                    subscriptionWindow.onVisibleRange(firstVisibleItem, visibleItemCount);
+                }
+                lastVisible = firstVisibleItem + visibleItemCount - 1;
+                handler.removeCallbacks(pageRequest);
+                handler.post(pageRequest);
+            }
+        });
+        
+        return view;
     }
     
-    @Override
-    public void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-
-        handler = new Handler();
+    /*
+     * the catalog is shared: it might be there already
+     */
+    private void onCatalogLoaded() {
+        if (!attached) {
+            return;
+        }
+        mainSubscription.subscribe(lsClient);
+        subscribed = true;
+        if (adapter != null) {
+            return;
+        }
         
-        setListAdapter(new StocksAdapter(getActivity(), R.layout.row_layout, list));
+        adapter = new StocksAdapter(getActivity(), catalog);
+        adapter.setOnRowClickListener(this);
+        if (list != null) {
+            list.setAdapter(adapter);
+        }
+        if (started) {
+            this.startRows();
+        }
     }
     
     @Override
     public void onStart() {
         super.onStart();
+        started = true;
+        if (adapter != null) {
+            this.startRows();
+        }
+    }
+    
+    private void startRows() {
+        if (frequencyController == null) {
+            frequencyController = new FrequencyController(getActivity(), handler, mainSubscription);
+            if (INITIAL_WINDOW > 0) {
+                subscriptionWindow = new SubscriptionWindow(handler, mainSubscription, catalog.size());
+            }
+        }
         
         //there's always only one StocksFragment at a time
-        mainSubscription.changeContext(handler, getListView()); 
+        rowDispatcher = new RowDispatcher(handler, adapter, frequencyController);
+        mainSubscription.changeDispatcher(rowDispatcher); 
+
+        frequencyController.start();
+        //the highlights were dropped by onStop
+        adapter.notifyDataSetChanged();
         
-        if (getFragmentManager().findFragmentById(R.id.details_fragment) != null) {
-            getListView().setChoiceMode(ListView.CHOICE_MODE_SINGLE);
-        }
+        adapter.setChoiceMode(getFragmentManager().findFragmentById(R.id.details_fragment) != null);
         
     }
     
     
     
+    @Override
+    public void onStop() {
+        super.onStop();
+        started = false;
+        if (rowDispatcher == null) {
+            //the catalog never came
+            return;
+        }
+        //isChangingConfigurations is only available since HONEYCOMB
+        boolean recreating = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && getActivity().isChangingConfigurations();
+        frequencyController.stop(recreating);
+        mainSubscription.changeDispatcher(null);
+        rowDispatcher.stop();
+        if (subscriptionWindow != null) {
+            subscriptionWindow.stop();
+        }
+        handler.removeCallbacks(pageRequest);
+        this.cancelHighlights();
+    }
+    
+    /*
+     * the rows are not redrawn while stopped: their highlights must not
+     * keep the HighlightDecay going
+     */
+    private void cancelHighlights() {
+        for (int i = 0; i < list.getChildCount(); i++) {
+            RowHolder holder = (RowHolder) list.getChildViewHolder(list.getChildAt(i));
+            HighlightDecay.get().cancel(holder.highlight);
+        }
+    }
+    
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -100,7 +258,11 @@ public class StocksFragment extends ListFragment {
             throw new ClassCastException(activity.toString()
                     + " must implement LightstreamerClientProxy");
         }
-        lsClient.addSubscription(mainSubscription);
+        attached = true;
+        if (handler == null) {
+            handler = new Handler();
+        }
+        this.loadCatalog(activity.getApplicationContext());
       
         // This makes sure that the container activity has implemented
         // the callback interface. If not, it throws an exception.
@@ -115,16 +277,21 @@ public class StocksFragment extends ListFragment {
     @Override
     public void onDetach() {
         super.onDetach();
-        lsClient.removeSubscription(mainSubscription);
+        attached = false;
+        handler.removeCallbacks(catalogLoaded);
+        if (subscribed) {
+            mainSubscription.unsubscribe();
+            subscribed = false;
+        }
     }
 
     @Override
-    public void onListItemClick(ListView l, View v, int position, long id) {
+    public void onRowClick(int position) {
         // Notify the parent activity of selected item
-        listener.onStockSelected(position+1);
+        listener.onStockSelected(catalog.getName(position));
         
         // Set the item as checked to be highlighted when in two-pane layout
-        getListView().setItemChecked(position, true);
+        adapter.setItemChecked(position);
     }
     
     
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Sits in front of the events thread and collects add/remove requests for a
+ * short window: for each subscription only the last requested state survives
+ * (add->remove->add is a single add, remove->add on a subscribed table is a
+ * no-op once applied), then everything is handed to the target in one go so
+ * that it can be sent as a batch.
+ */
+class SubscriptionCoalescer {
+
+    public interface Target {
+        /*
+         * called on the events executor, removals first then additions (both in request order)
+         */
+        public void apply(List<Subscription> toAdd, List<Subscription> toRemove);
+    }
+
+    private final ScheduledExecutorService timer;
+    private final Executor events;
+    private final Target target;
+    private final long window;
+
+    //in request order; Subscription implementations do not override equals, identity is what we get
+    private final Map<Subscription,Boolean> pending = new LinkedHashMap<Subscription,Boolean>(); // guarded by this
+    private boolean flushScheduled = false; // guarded by this
+
+    private final AtomicLong requested = new AtomicLong(0);
+    private final AtomicLong superseded = new AtomicLong(0);
+    private final AtomicLong avoided = new AtomicLong(0);
+    private final AtomicLong flushes = new AtomicLong(0);
+
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            events.execute(drainTask);
+        }
+    };
+
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    public SubscriptionCoalescer(ScheduledExecutorService timer, Executor events, Target target, long window) {
+        this.timer = timer;
+        this.events = events;
+        this.target = target;
+        this.window = window;
+    }
+
+    public void add(Subscription sub) {
+        this.enqueue(sub,true);
+    }
+
+    public void remove(Subscription sub) {
+        this.enqueue(sub,false);
+    }
+
+    private synchronized void enqueue(Subscription sub, boolean add) {
+        requested.incrementAndGet();
+
+        //the last request wins, and takes the place of the superseded one
+        if (pending.remove(sub) != null) {
+            superseded.incrementAndGet();
+        }
+        pending.put(sub,add);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            timer.schedule(flushTask, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * applies the pending requests now; must be called from the events executor.
+     * Used before handling requests that depend on the set of subscriptions
+     */
+    public void drain() {
+        List<Subscription> toAdd;
+        List<Subscription> toRemove;
+        synchronized(this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            toAdd = new ArrayList<Subscription>(pending.size());
+            toRemove = new ArrayList<Subscription>(pending.size());
+            for (Map.Entry<Subscription,Boolean> request : pending.entrySet()) {
+                if (request.getValue()) {
+                    toAdd.add(request.getKey());
+                } else {
+                    toRemove.add(request.getKey());
+                }
+            }
+            pending.clear();
+        }
+
+        flushes.incrementAndGet();
+        target.apply(toAdd,toRemove);
+    }
+
+    /*
+     * the target reports requests that did not need a round trip
+     * (no-ops or requests sent together with others)
+     */
+    public void onAvoidedRoundTrips(int count) {
+        avoided.addAndGet(count);
+    }
+
+    public long getRequested() {
+        return requested.get();
+    }
+
+    public long getSuperseded() {
+        return superseded.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /*
+     * number of round trips that would have been performed without coalescing
+     */
+    public long getSavedRoundTrips() {
+        return superseded.get() + avoided.get();
+    }
+
+}
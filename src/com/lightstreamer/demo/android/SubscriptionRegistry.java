@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.lightstreamer.demo.android.LightstreamerClient.MpnStatusListener;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+
+/*
+ * Keeps the subscriptions requested by the application indexed by identity
+ * and by group (the group identifies the related mpn subscriptions).
+ * Each time a subscription is added it gets a new generation; the table key
+ * obtained from the server is bound to the generation and to the connection
+ * it was obtained on, so that a key from an older session (or a subscription
+ * that was removed and added again in the meanwhile) is never used.
+ */
+class SubscriptionRegistry {
+
+    public static final long NO_GENERATION = -1;
+
+    private final Map<Subscription,Entry> byIdentity = new IdentityHashMap<Subscription,Entry>();
+    private final Map<String,Set<Entry>> byGroup = new HashMap<String,Set<Entry>>();
+
+    private long generations = 0;
+
+    /*
+     * returns false if the subscription was already registered
+     */
+    public synchronized boolean add(Subscription sub) {
+        if (byIdentity.containsKey(sub)) {
+            return false;
+        }
+
+        Entry entry = new Entry(sub,++generations);
+        byIdentity.put(sub,entry);
+
+        Set<Entry> forGroup = byGroup.get(entry.group);
+        if (forGroup == null) {
+            forGroup = new LinkedHashSet<Entry>();
+            byGroup.put(entry.group,forGroup);
+        }
+        forGroup.add(entry);
+
+        return true;
+    }
+
+    /*
+     * returns the removed entry, null if the subscription was not registered
+     */
+    public synchronized Entry remove(Subscription sub) {
+        Entry entry = byIdentity.remove(sub);
+        if (entry == null) {
+            return null;
+        }
+
+        Set<Entry> forGroup = byGroup.get(entry.group);
+        forGroup.remove(entry);
+        if (forGroup.isEmpty()) {
+            byGroup.remove(entry.group);
+        }
+
+        return entry;
+    }
+
+    public synchronized boolean contains(Subscription sub) {
+        return byIdentity.containsKey(sub);
+    }
+
+    public synchronized int size() {
+        return byIdentity.size();
+    }
+
+    public synchronized long getGeneration(Subscription sub) {
+        Entry entry = byIdentity.get(sub);
+        return entry == null ? NO_GENERATION : entry.generation;
+    }
+
+    /*
+     * binds the key obtained on connection connId to the given generation of the subscription.
+     * Returns false if the subscription was removed (or removed and added again) in the meanwhile:
+     * in that case the key is not stored
+     */
+    public synchronized boolean bind(Subscription sub, long generation, int connId, SubscribedTableKey key) {
+        Entry entry = byIdentity.get(sub);
+        if (entry == null || entry.generation != generation) {
+            return false;
+        }
+        entry.set(connId,key);
+        return true;
+    }
+
+    /*
+     * the key bound on the given connection, null if none
+     */
+    public synchronized SubscribedTableKey getKey(Subscription sub, int connId) {
+        Entry entry = byIdentity.get(sub);
+        return entry == null ? null : entry.getKey(connId);
+    }
+
+    /*
+     * the most recently added mpn listener for the group, if any
+     */
+    public synchronized MpnStatusListener getMpnStatusListener(String group) {
+        Set<Entry> forGroup = byGroup.get(group);
+        if (forGroup == null) {
+            return null;
+        }
+        MpnStatusListener listener = null;
+        Iterator<Entry> entries = forGroup.iterator();
+        while (entries.hasNext()) {
+            MpnStatusListener candidate = entries.next().sub.getMpnStatusListener();
+            if (candidate != null) {
+                listener = candidate;
+            }
+        }
+        return listener;
+    }
+
+    public synchronized List<Subscription> snapshot() {
+        return new ArrayList<Subscription>(byIdentity.keySet());
+    }
+
+    public static class Entry {
+
+        private final Subscription sub;
+        private final String group;
+        private final long generation;
+
+        private int connId = 0;
+        private SubscribedTableKey key = null;
+
+        Entry(Subscription sub, long generation) {
+            this.sub = sub;
+            this.group = sub.getTableInfo().getGroup();
+            this.generation = generation;
+        }
+
+        public Subscription getSubscription() {
+            return sub;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        /*
+         * the key bound on the given connection, null if the subscription
+         * was not subscribed on that connection
+         */
+        public synchronized SubscribedTableKey getKey(int connId) {
+            return this.connId == connId ? key : null;
+        }
+
+        private synchronized void set(int connId, SubscribedTableKey key) {
+            this.connId = connId;
+            this.key = key;
+        }
+    }
+
+}
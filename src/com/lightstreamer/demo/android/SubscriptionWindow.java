@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import android.os.Handler;
+import android.util.Log;
+
+/*
+ * Moves the window of items subscribed by the MainSubscription along with the
+ * visible rows of the list. The window covers the visible rows plus PREFETCH
+ * rows on each side and is only moved when the visible rows get closer than
+ * MIN_MARGIN rows to one of its edges (hysteresis) and the list has been still
+ * for SETTLE_DELAY ms (a fling moves it once); only the rows entering and
+ * leaving the window are subscribed and unsubscribed, see MainSubscription.
+ * All calls from the UI thread.
+ */
+class SubscriptionWindow {
+
+    private static final String TAG = "LS_WINDOW";
+
+    private static final int PREFETCH = 6;
+    private static final int MIN_MARGIN = 2;
+    private static final long SETTLE_DELAY = 250;
+
+    private final Handler handler;
+    private final MainSubscription subscription;
+    private final int size;
+
+    private int first = 0;
+    private int last = -1;
+
+    private final Runnable moveTask = new Runnable() {
+        public void run() {
+            move();
+        }
+    };
+
+    public SubscriptionWindow(Handler handler, MainSubscription subscription, int size) {
+        this.handler = handler;
+        this.subscription = subscription;
+        this.size = size;
+    }
+
+    public void onVisibleRange(int firstVisible, int visibleCount) {
+        if (visibleCount <= 0) {
+            return;
+        }
+        int lastVisible = firstVisible + visibleCount - 1;
+
+        int windowFirst = subscription.getWindowFirst();
+        int windowLast = subscription.getWindowLast();
+        //the edges of the list need no margin
+        boolean firstOk = windowFirst == 0 || firstVisible - windowFirst >= MIN_MARGIN;
+        boolean lastOk = windowLast == size - 1 || windowLast - lastVisible >= MIN_MARGIN;
+        if (firstOk && lastOk) {
+            handler.removeCallbacks(moveTask);
+            return;
+        }
+
+        first = Math.max(0, firstVisible - PREFETCH);
+        last = Math.min(size - 1, lastVisible + PREFETCH);
+        //restart the wait at each scroll event
+        handler.removeCallbacks(moveTask);
+        handler.postDelayed(moveTask, SETTLE_DELAY);
+    }
+
+    public void stop() {
+        handler.removeCallbacks(moveTask);
+    }
+
+    private void move() {
+        if (subscription.setWindow(first, last)) {
+            Log.d(TAG,"Window moved to " + first + "-" + last);
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+/*
+ * Where the time goes between an update reaching its listener and its
+ * pixels, one set of LatencyHistograms per screen:
+ *  - model: listener called -> model updated (client thread)
+ *  - queue: redraw posted -> dequeued by the UI thread
+ *  - bind: dequeued -> views bound (the list rows are bound in place,
+ *    see RowDispatcher.flush)
+ *  - frame: views bound -> end of the frame that drew them
+ *  - total: listener called -> next frame, for the oldest update of the batch
+ * Updates merged into a pending redraw (see RowDispatcher and Stock) count
+ * in model only. The QUOTE_ADAPTER time field is not used as origin: it has
+ * a 1 second resolution and the clock of the server.
+ * Timestamps are System.nanoTime(); commits are UI thread only.
+ */
+class UpdateLatency {
+
+    private static final String TAG = "LS_LATENCY";
+
+    private static final String EXPORT_FILE = "latency.csv";
+
+    static final int MODEL = 0;
+    static final int QUEUE = 1;
+    static final int BIND = 2;
+    static final int FRAME = 3;
+    static final int TOTAL = 4;
+    static final String[] STAGES = {"model", "queue", "bind", "frame", "total"};
+
+    static final UpdateLatency LIST = new UpdateLatency("list");
+    static final UpdateLatency DETAILS = new UpdateLatency("details");
+
+    private static final UpdateLatency[] SCREENS = {LIST, DETAILS};
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private final String screen;
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+
+    //the batch waiting for its frame
+    private Handler handler = null; // UI thread only, created by the first batch: recording works off-device too
+    private FrameScheduler frames = null; // UI thread only
+    private boolean commitPending = false; // UI thread only
+    private long boundAt; // UI thread only
+    private long oldest; // UI thread only
+
+    private final Runnable commitTask = new Runnable() {
+        public void run() {
+            commit(System.nanoTime());
+        }
+    };
+
+    private UpdateLatency(String screen) {
+        this.screen = screen;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(int stage, long from, long to) {
+        stages[stage].recordNanos(to - from);
+    }
+
+    public LatencyHistogram get(int stage) {
+        return stages[stage];
+    }
+
+    /*
+     * views bound at boundAt for updates received since oldest: frame and
+     * total are recorded once the frame drawing them is done. inFrame if
+     * bound from a frame callback, whose frame draws them. Batches bound
+     * before that are committed together (the earliest bind, the oldest update)
+     */
+    public void onBound(long boundAt, long oldest, boolean inFrame) { //UI thread
+        if (commitPending) {
+            this.oldest = Math.min(this.oldest, oldest);
+            return;
+        }
+        commitPending = true;
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        this.boundAt = boundAt;
+        this.oldest = oldest;
+        if (inFrame || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            //a frame is a single message, traversal included: this runs after it
+            //(before JELLY_BEAN the traversal message was sent by the bind)
+            handler.post(commitTask);
+        } else {
+            if (frames == null) {
+                frames = new FrameScheduler();
+            }
+            frames.schedule();
+        }
+    }
+
+    private void commit(long now) { //UI thread
+        commitPending = false;
+        stages[FRAME].recordNanos(now - boundAt);
+        stages[TOTAL].recordNanos(now - oldest);
+    }
+
+    /*
+     * p50/p99/p99.9/max per stage, in ms
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder(screen);
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram stage = stages[i];
+            summary.append(i == 0 ? ": " : ", ").append(STAGES[i])
+                .append(" n=").append(stage.getCount())
+                .append(" p50=").append(millis(stage.getValueAtPercentile(50)))
+                .append(" p99=").append(millis(stage.getValueAtPercentile(99)))
+                .append(" p99.9=").append(millis(stage.getValueAtPercentile(99.9)))
+                .append(" max=").append(millis(stage.getMax()));
+        }
+        return summary.toString();
+    }
+
+    public void reset() {
+        for (LatencyHistogram stage : stages) {
+            stage.reset();
+        }
+    }
+
+    /*
+     * one line per stage with its percentiles, then the non empty buckets
+     * (highest value in us, count) so that any percentile can be worked out
+     */
+    public void export(Writer out) throws IOException {
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram stage = stages[i];
+            out.write(screen + "," + STAGES[i] + ",percentiles_us," + stage.getCount()
+                    + "," + stage.getValueAtPercentile(50)
+                    + "," + stage.getValueAtPercentile(99)
+                    + "," + stage.getValueAtPercentile(99.9)
+                    + "," + stage.getMax() + "\n");
+        }
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram stage = stages[i];
+            for (int b = 0; b < LatencyHistogram.BUCKETS; b++) {
+                long count = stage.getBucketCount(b);
+                if (count > 0) {
+                    out.write(screen + "," + STAGES[i] + ",bucket," + stage.getBucketHighest(b) + "," + count + "\n");
+                }
+            }
+        }
+    }
+
+    /*
+     * logs the summaries and writes all the screens to the files dir, in
+     * background (the histograms keep recording meanwhile)
+     */
+    public static void exportAll(File dir) {
+        for (UpdateLatency screen : SCREENS) {
+            Log.d(TAG, screen.getSummary());
+        }
+        final File file = new File(dir, EXPORT_FILE);
+        writer.execute(new Runnable() {
+            public void run() {
+                Writer out = null;
+                try {
+                    out = new FileWriter(file);
+                    out.write("screen,stage,kind,values\n");
+                    for (UpdateLatency screen : SCREENS) {
+                        screen.export(out);
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG,"Can't export latencies: " + e.getMessage());
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static String millis(long micros) {
+        return micros / 1000 + "." + (micros % 1000) / 100 + "ms";
+    }
+
+    /*
+     * (only referenced on JELLY_BEAN+)
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameScheduler implements Choreographer.FrameCallback {
+
+        void schedule() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            //the views are drawn later in this frame
+            handler.post(commitTask);
+        }
+    }
+
+}
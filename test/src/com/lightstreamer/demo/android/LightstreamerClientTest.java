@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lightstreamer.demo.android.LightstreamerClient.MpnStatusListener;
+import com.lightstreamer.ls_client.ExtendedTableInfo;
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+import com.lightstreamer.ls_client.UpdateInfo;
+import com.lightstreamer.ls_client.mpn.MpnInfo;
+
+/*
+ * Connection, subscription and reconnection flows of the LightstreamerClient
+ * against the FakePushTransport, on a plain JVM (see Logger).
+ */
+public class LightstreamerClientTest {
+
+    private static final long TIMEOUT = 5000;
+    private static final long MPN_CACHE_TTL = 15*60*1000;
+
+    private FakePushTransport transport;
+    private LightstreamerClient client;
+
+    @Before
+    public void setUp() {
+        Logger.setLogger(new Logger() {
+            @Override
+            public void println(int priority, String tag, String msg) {
+                if (priority >= Logger.WARN) {
+                    System.err.println(tag + ": " + msg);
+                }
+            }
+
+            @Override
+            public boolean isEnabled(String tag, int priority) {
+                return priority >= Logger.WARN;
+            }
+        });
+        transport = new FakePushTransport(200, 42);
+        client = new LightstreamerClient(transport);
+    }
+
+    @After
+    public void tearDown() {
+        client.stop(false);
+    }
+
+    @Test
+    public void subscribesOnConnection() throws InterruptedException {
+        TestSubscription sub = new TestSubscription("item1", "item2");
+        client.addSubscription(sub);
+        client.start();
+
+        awaitStatus(LightstreamerClient.STREAMING);
+        //the snapshot of both items, then the stream
+        awaitUpdates(sub, 2);
+        assertEquals(2, sub.snapshots.get());
+        awaitUpdates(sub, 10);
+        assertEquals(1, client.getMetrics().getSessions());
+    }
+
+    @Test
+    public void subscribesWhileConnected() throws InterruptedException {
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+
+        TestSubscription sub = new TestSubscription("item3");
+        client.addSubscription(sub);
+        awaitUpdates(sub, 5);
+        assertEquals(1, sub.snapshots.get());
+
+        client.removeSubscription(sub);
+        await(sub.unsubscribed, 1);
+        int updates = sub.updates.get();
+        Thread.sleep(200);
+        assertEquals(updates, sub.updates.get());
+    }
+
+    @Test
+    public void resubscribesAfterDisconnection() throws InterruptedException {
+        TestSubscription first = new TestSubscription("item1");
+        TestSubscription second = new TestSubscription("item2");
+        client.addSubscription(first);
+        client.addSubscription(second);
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+        awaitUpdates(first, 2);
+        awaitUpdates(second, 2);
+
+        transport.disconnect();
+        awaitSessions(2);
+        awaitStatus(LightstreamerClient.STREAMING);
+
+        //a new snapshot for each subscription, in a single batch, then the stream again
+        await(first.snapshots, 2);
+        await(second.snapshots, 2);
+        int updates = first.updates.get();
+        awaitUpdates(first, updates + 5);
+    }
+
+    @Test
+    public void waitsBeforeReconnecting() throws InterruptedException {
+        final List<Integer> statuses = Collections.synchronizedList(new ArrayList<Integer>());
+        client.setListener(new LightstreamerClient.StatusChangeListener() {
+            @Override
+            public void onStatusChange(int status) {
+                statuses.add(status);
+            }
+        });
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+        statuses.clear();
+
+        transport.disconnect();
+        awaitSessions(2);
+        awaitStatus(LightstreamerClient.STREAMING);
+        assertEquals(Arrays.asList(LightstreamerClient.DISCONNECTED, LightstreamerClient.WAITING,
+                LightstreamerClient.CONNECTING, LightstreamerClient.STREAMING), statuses);
+    }
+
+    @Test
+    public void resubscribesMoreThanABatch() throws InterruptedException {
+        //more than ResubscriptionPipeline.MAX_BATCH, one row each as the MainSubscription does
+        TestSubscription[] subs = new TestSubscription[40];
+        for (int i = 0; i < subs.length; i++) {
+            subs[i] = new TestSubscription("item" + (i + 1));
+            client.addSubscription(subs[i]);
+        }
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+        for (TestSubscription sub : subs) {
+            await(sub.snapshots, 1);
+        }
+
+        transport.disconnect();
+        awaitSessions(2);
+        for (TestSubscription sub : subs) {
+            await(sub.snapshots, 2);
+        }
+    }
+
+    @Test
+    public void retriesFailedConnections() throws InterruptedException {
+        TestSubscription sub = new TestSubscription("item1");
+        client.addSubscription(sub);
+        transport.failNextConnections(1);
+        client.start();
+
+        awaitStatus(LightstreamerClient.WAITING);
+        //after the minimum reconnection delay
+        awaitStatus(LightstreamerClient.STREAMING);
+        assertEquals(2, client.getMetrics().getConnectionAttempts());
+        awaitUpdates(sub, 2);
+    }
+
+    @Test
+    public void stopsOnRequest() throws InterruptedException {
+        TestSubscription sub = new TestSubscription("item1");
+        client.addSubscription(sub);
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+        awaitUpdates(sub, 2);
+
+        client.stop(false);
+        awaitStatus(LightstreamerClient.DISCONNECTED);
+        int updates = sub.updates.get();
+        Thread.sleep(200);
+        assertEquals(updates, sub.updates.get());
+    }
+
+    @Test
+    public void refreshesSubscriptionsTogether() throws InterruptedException {
+        List<Subscription> subs = new ArrayList<Subscription>();
+        for (int i = 1; i <= 20; i++) {
+            TestSubscription sub = new TestSubscription("item" + i);
+            subs.add(sub);
+            client.addSubscription(sub);
+        }
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+        for (Subscription sub : subs) {
+            await(((TestSubscription) sub).snapshots, 1);
+        }
+        int batches = transport.getBatches();
+
+        client.refreshSubscriptions(subs);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (transport.getUnsubscriptions() == 0) {
+            assertTrue("no unsubscription", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        //the new tables in two batches, the old ones in a single request
+        assertEquals(batches + 2, transport.getBatches());
+        assertEquals(1, transport.getUnsubscriptions());
+        assertEquals(20, transport.getTableCount());
+    }
+
+    @Test
+    public void inquiresMpnStatusesConcurrently() throws InterruptedException {
+        transport.setMpnInquiryLatency(200);
+        client.enablePN(true);
+        client.start();
+        awaitStatus(LightstreamerClient.STREAMING);
+
+        int triggers = 8;
+        for (int i = 0; i < triggers; i++) {
+            client.activateMPN(mpnInfo("item1", "Double.parseDouble(${last_price}) > " + (10 + i)));
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (transport.getMpnCount() < triggers) {
+            assertTrue("mpns " + transport.getMpnCount(), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        client.retrieveMpnStatus("item1");
+        deadline = System.currentTimeMillis() + TIMEOUT;
+        while (transport.getMpnInquiries() < triggers) {
+            assertTrue("inquiries " + transport.getMpnInquiries(), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        //the inquiries share the client, only a batch takes it all
+        assertTrue("max in flight " + transport.getMaxMpnInquiriesInFlight(), transport.getMaxMpnInquiriesInFlight() > 1);
+    }
+
+    @Test
+    public void trustsAFreshPersistedMpnCache() throws Exception {
+        File file = File.createTempFile("mpn", ".cache");
+        try {
+            String synced = "Double.parseDouble(${last_price}) > 10";
+            Map<String,Map<String,Boolean>> cache = new HashMap<String,Map<String,Boolean>>();
+            cache.put("item1", new HashMap<String,Boolean>());
+            cache.get("item1").put(synced, true);
+            long syncedAt = System.currentTimeMillis() - 60000;
+            new MpnCacheStore(file, MPN_CACHE_TTL).save(cache, syncedAt);
+
+            client.setMpnCacheFile(file, new LightstreamerClient.MpnInfoFactory() {
+                @Override
+                public MpnInfo build(String group, String trigger) {
+                    return mpnInfo(group, trigger);
+                }
+            });
+            client.enablePN(true);
+            client.start();
+            awaitStatus(LightstreamerClient.STREAMING);
+
+            //a local change is persisted with the time of the last sync
+            client.activateMPN(mpnInfo("item1", "Double.parseDouble(${last_price}) > 20"));
+            MpnCacheStore store = new MpnCacheStore(file, MPN_CACHE_TTL);
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            Map<String,Set<String>> persisted = store.load();
+            while (persisted == null || persisted.get("item1").size() < 2) {
+                assertTrue("persisted " + persisted, System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+                persisted = store.load();
+            }
+            assertEquals(syncedAt, store.getLoadedTimestamp());
+            //no deactivate/inquire round trips, just the activation
+            assertEquals(1, transport.getMpnRequests());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static MpnInfo mpnInfo(String item, String trigger) {
+        ExtendedTableInfo tableInfo;
+        try {
+            tableInfo = new ExtendedTableInfo(new String[] {item}, "MERGE", QuoteSchema.LIST.getFieldNames(), false);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        tableInfo.setDataAdapter("QUOTE_ADAPTER");
+        MpnInfo info = new MpnInfo(tableInfo, "Stock update", new HashMap<String,String>());
+        info.setTriggerExpression(trigger);
+        return info;
+    }
+
+    private void awaitStatus(int status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (client.getStatus() != status) {
+            assertTrue("status " + client.getStatus() + " instead of " + status, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitSessions(long sessions) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (client.getMetrics().getSessions() < sessions) {
+            assertTrue("sessions " + client.getMetrics().getSessions(), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitUpdates(TestSubscription sub, int updates) throws InterruptedException {
+        await(sub.updates, updates);
+    }
+
+    private static void await(AtomicInteger counter, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (counter.get() < count) {
+            assertTrue("count " + counter.get() + " instead of " + count, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class TestSubscription implements Subscription, HandyTableListener {
+
+        final AtomicInteger updates = new AtomicInteger(0);
+        final AtomicInteger snapshots = new AtomicInteger(0);
+        final AtomicInteger unsubscribed = new AtomicInteger(0);
+
+        private final ExtendedTableInfo tableInfo;
+        private volatile SubscribedTableKey key;
+
+        TestSubscription(String... items) {
+            try {
+                tableInfo = new ExtendedTableInfo(items, "MERGE", QuoteSchema.LIST.getFieldNames(), true);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            tableInfo.setDataAdapter("QUOTE_ADAPTER");
+        }
+
+        @Override
+        public HandyTableListener getTableListener() {
+            return this;
+        }
+
+        @Override
+        public SubscribedTableKey getTableKey() {
+            return key;
+        }
+
+        @Override
+        public ExtendedTableInfo getTableInfo() {
+            return tableInfo;
+        }
+
+        @Override
+        public void setTableKey(SubscribedTableKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public MpnStatusListener getMpnStatusListener() {
+            return null;
+        }
+
+        @Override
+        public void onUpdate(int itemPos, String itemName, UpdateInfo update) {
+            if (update.isSnapshot()) {
+                snapshots.incrementAndGet();
+            }
+            updates.incrementAndGet();
+        }
+
+        @Override
+        public void onSnapshotEnd(int itemPos, String itemName) {
+        }
+
+        @Override
+        public void onRawUpdatesLost(int itemPos, String itemName, int lostUpdates) {
+        }
+
+        @Override
+        public void onUnsubscr(int itemPos, String itemName) {
+            unsubscribed.incrementAndGet();
+        }
+
+        @Override
+        public void onUnsubscrAll() {
+        }
+    }
+
+}
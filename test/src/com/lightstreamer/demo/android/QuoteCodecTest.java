@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.Random;
+
+import org.junit.Test;
+
+/*
+ * QuoteCodec against the JDK code it replaces: DecimalFormat("#.00") for
+ * the prices shown, Double.parseDouble, BigDecimal and Long.parseLong for
+ * the values received.
+ */
+public class QuoteCodecTest {
+
+    private static final int SAMPLES = 200000;
+
+    private final Random random = new Random(42);
+    private final DecimalFormat format = new DecimalFormat("#.00");
+    private final char[] buffer = new char[QuoteCodec.MAX_LENGTH];
+
+    @Test
+    public void formatsLikeDecimalFormat() {
+        double[] edges = {0, -0.0, 0.001, -0.001, 0.004, 0.005, 0.015, 0.025, 0.125, 0.375, -0.125, 1.005, 2.675,
+                0.5, 1, 10, 99.995, 99.999, 100, 1234.5, 0.1 + 0.2, 1e13 - 0.005, 1e13, 45035996273704.5,
+                999999999999999.0, 1e15, -1e15, 1e300, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY};
+        for (double value : edges) {
+            assertFormat(value);
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            //prices as they come (few decimals) and exact half cents
+            assertFormat(random.nextInt(100000000) / Math.pow(10, random.nextInt(6)));
+            assertFormat((random.nextInt(2000000) - 1000000) / 8.0 / 100);
+            assertFormat(random.nextDouble() * Math.pow(10, random.nextInt(16)));
+        }
+    }
+
+    @Test
+    public void formatsNotAvailable() {
+        assertEquals("N/A", new String(buffer, 0, QuoteCodec.formatNotAvailable(buffer)));
+    }
+
+    @Test
+    public void parsesLikeDouble() {
+        String[] edges = {"0", "-0", "+0", "0.0", ".5", "-.5", "5.", "+1.5", "0.000", "00012.3400",
+                "9007199254740991", "9007199254740993", "123456789012345678", "1234567890123456789",
+                "0.1", "0.3", "1.005", "2.675", "1e3", "1.5E-3", " 1.5", "Infinity", "NaN"};
+        for (String value : edges) {
+            assertParse(value);
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            assertParse(randomDecimal());
+        }
+    }
+
+    @Test
+    public void refusesWhatIsNotANumber() {
+        String[] invalid = {null, "", "-", "+", ".", "-.", "1.2.3", "12a", "N/A", "1,5", "--1"};
+        for (String value : invalid) {
+            try {
+                QuoteCodec.parseDecimal(value);
+                fail("parsed " + value);
+            } catch (NumberFormatException expected) {
+            } catch (NullPointerException expected) {
+                //only for null, like the JDK
+                assertEquals(null, value);
+            }
+        }
+    }
+
+    @Test
+    public void parsesFixedLikeBigDecimal() {
+        String[] edges = {"0", "-0", "1", "1.2", "1.23", "1.230", "-1.23", ".5", "5.", "00012.3400",
+                "99999999999999.9999", "0.0000"};
+        for (String value : edges) {
+            assertFixed(value, 4);
+            assertFixed(value, 0);
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            assertFixed(randomDecimal(), random.nextInt(7));
+        }
+    }
+
+    @Test
+    public void refusesFixedOutOfScale() {
+        String[] invalid = {"1.234", "-0.001", "1234567890123456789", "99999999999999999.9", "1e2", "", "-", "."};
+        for (String value : invalid) {
+            try {
+                QuoteCodec.parseFixed(value, 2);
+                fail("parsed " + value);
+            } catch (NumberFormatException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void parsesQuantityLikeLong() {
+        String[] edges = {"0", "000", "1", "42", "999999999999999999"};
+        for (String value : edges) {
+            assertEquals(value, Long.parseLong(value), QuoteCodec.parseQuantity(value));
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            long quantity = (random.nextLong() >>> 1) % 1000000000000000000L;
+            assertEquals(quantity, QuoteCodec.parseQuantity(Long.toString(quantity)));
+        }
+        String[] invalid = {null, "", "-1", "+1", "1.0", "12a", " 1", "1234567890123456789"};
+        for (String value : invalid) {
+            try {
+                QuoteCodec.parseQuantity(value);
+                fail("parsed " + value);
+            } catch (NumberFormatException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void comparesLikeBigDecimal() {
+        String[] edges = {"0", "-0", "+0", "0.0", "-0.00", ".0", "1.5", "1.50", "01.5", "-1.5", ".5", "0.5",
+                "5.", "10", "9.99", "123456789012345678901234567890.1", "123456789012345678901234567890.01"};
+        for (String a : edges) {
+            for (String b : edges) {
+                assertCompare(a, b);
+            }
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            String a = randomDecimal();
+            assertCompare(a, random.nextBoolean() ? randomDecimal() : a + "0");
+        }
+        //not plain decimals: parsed
+        assertEquals(1, QuoteCodec.compareDecimal("1e3", "999.5"));
+        assertEquals(0, QuoteCodec.compareDecimal("1.5E0", "1.50"));
+    }
+
+    @Test
+    public void parsesTimes() {
+        assertEquals(0, QuoteCodec.parseTime("00:00:00"));
+        assertEquals(45296, QuoteCodec.parseTime("12:34:56"));
+        assertEquals(86399, QuoteCodec.parseTime("23:59:59"));
+        String[] invalid = {null, "", "1:23:45", "12:34:5", "12-34-56", "12:3a:56", "12:34:56 ", "-1:00:00"};
+        for (String value : invalid) {
+            try {
+                QuoteCodec.parseTime(value);
+                fail("parsed " + value);
+            } catch (NumberFormatException expected) {
+            }
+        }
+    }
+
+    private void assertFormat(double value) {
+        String expected = format.format(value);
+        if (expected.length() > QuoteCodec.MAX_LENGTH) {
+            expected = "N/A";
+        }
+        int length = QuoteCodec.formatPrice(value, buffer);
+        assertEquals(Double.toString(value), expected, new String(buffer, 0, length));
+    }
+
+    private static void assertParse(String value) {
+        double expected = Double.parseDouble(value);
+        double actual = QuoteCodec.parseDecimal(value);
+        //bit by bit, -0 included
+        assertEquals(value, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static void assertFixed(String value, int scale) {
+        long expected;
+        try {
+            expected = new BigDecimal(value).movePointRight(scale).longValueExact();
+        } catch (ArithmeticException tooPrecise) {
+            try {
+                QuoteCodec.parseFixed(value, scale);
+                fail("parsed " + value + " with scale " + scale);
+            } catch (NumberFormatException expectedToo) {
+            }
+            return;
+        }
+        try {
+            assertEquals(value + " with scale " + scale, expected, QuoteCodec.parseFixed(value, scale));
+        } catch (NumberFormatException nfe) {
+            //more than 18 digits once scaled
+            assertEquals(value, true, Math.abs(expected) >= 1000000000000000000L);
+        }
+    }
+
+    private static void assertCompare(String a, String b) {
+        int expected = new BigDecimal(a).compareTo(new BigDecimal(b));
+        assertEquals(a + " vs " + b, expected, QuoteCodec.compareDecimal(a, b));
+    }
+
+    /*
+     * up to 18 digits, sometimes more, with up to 8 decimals and a sign
+     */
+    private String randomDecimal() {
+        StringBuilder value = new StringBuilder();
+        int sign = random.nextInt(8);
+        if (sign == 0) {
+            value.append('-');
+        } else if (sign == 1) {
+            value.append('+');
+        }
+        int digits = 1 + random.nextInt(random.nextInt(10) == 0 ? 22 : 12);
+        int dot = random.nextInt(digits + 1);
+        for (int i = 0; i < digits; i++) {
+            if (i == dot && dot < digits - 1 && random.nextInt(8) != 0) {
+                value.append('.');
+            }
+            value.append((char) ('0' + random.nextInt(10)));
+        }
+        return value.toString();
+    }
+
+}
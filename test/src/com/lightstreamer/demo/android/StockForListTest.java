@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Weswit Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lightstreamer.demo.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lightstreamer.ls_client.ConnectionInfo;
+import com.lightstreamer.ls_client.ConnectionListener;
+import com.lightstreamer.ls_client.ExtendedTableInfo;
+import com.lightstreamer.ls_client.HandyTableListener;
+import com.lightstreamer.ls_client.PushConnException;
+import com.lightstreamer.ls_client.PushServerException;
+import com.lightstreamer.ls_client.SubscribedTableKey;
+import com.lightstreamer.ls_client.UpdateInfo;
+
+/*
+ * The list rows are updated without allocations (see StockForList.apply),
+ * measured with the per-thread allocation counter of the JVM.
+ */
+public class StockForListTest {
+
+    private static final int FEED_SIZE = 256;
+    private static final int WARM_UP = 20000;
+    private static final int APPLIES = 100000;
+    private static final int ROUNDS = 5;
+
+    private QuoteUpdate[] feed;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogger(new Logger() {
+            @Override
+            public void println(int priority, String tag, String msg) {
+            }
+
+            @Override
+            public boolean isEnabled(String tag, int priority) {
+                return false;
+            }
+        });
+        feed = recordFeed("item1", QuoteSchema.LIST);
+    }
+
+    @Test
+    public void appliesUpdates() {
+        StockForList stock = new StockForList("item1", 0);
+        for (QuoteUpdate update : feed) {
+            stock.apply(update);
+        }
+        String[] values = stock.getValues();
+        QuoteUpdate last = feed[FEED_SIZE - 1];
+        for (String field : QuoteSchema.LIST.getFieldNames()) {
+            int index = QuoteSchema.indexOf(field);
+            assertEquals(field, last.get(index), values[index]);
+        }
+    }
+
+    @Test
+    public void appliesWithoutAllocations() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        StockForList stock = new StockForList("item1", 0);
+        //class loading, lazy JDK caches, compilation
+        applyAll(stock, WARM_UP);
+        //what reading the counter costs, if anything
+        long before = allocations.getThreadAllocatedBytes(thread);
+        long overhead = allocations.getThreadAllocatedBytes(thread) - before;
+
+        //the least of a few rounds: the JVM itself allocates now and then (compilations)
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && allocated > 0; round++) {
+            before = allocations.getThreadAllocatedBytes(thread);
+            applyAll(stock, APPLIES);
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(thread) - before - overhead);
+        }
+
+        assertTrue(allocated + " bytes allocated by " + APPLIES + " updates", allocated <= 0);
+    }
+
+    private void applyAll(StockForList stock, int count) {
+        for (int i = 0; i < count; i++) {
+            stock.apply(feed[i % FEED_SIZE]);
+        }
+    }
+
+    /*
+     * the first FEED_SIZE updates (snapshot included) of an item from the
+     * fake server, each in its own QuoteUpdate
+     */
+    private static QuoteUpdate[] recordFeed(String item, QuoteSchema schema) throws Exception {
+        final UpdateInfo[] updates = new UpdateInfo[FEED_SIZE];
+        final CountDownLatch full = new CountDownLatch(1);
+
+        FakePushTransport transport = new FakePushTransport(10000, 42);
+        transport.openConnection(new ConnectionInfo(), new IdleConnectionListener());
+        ExtendedTableInfo info = new ExtendedTableInfo(new String[] {item}, "MERGE", schema.getFieldNames(), true);
+        info.setDataAdapter("QUOTE_ADAPTER");
+        SubscribedTableKey key = transport.subscribeTable(info, new HandyTableListener() {
+            int count = 0;
+            public void onUpdate(int itemPos, String itemName, UpdateInfo newData) {
+                if (count < FEED_SIZE) {
+                    updates[count++] = newData;
+                    if (count == FEED_SIZE) {
+                        full.countDown();
+                    }
+                }
+            }
+            public void onRawUpdatesLost(int itemPos, String itemName, int lostUpdates) {
+            }
+            public void onSnapshotEnd(int itemPos, String itemName) {
+            }
+            public void onUnsubscr(int itemPos, String itemName) {
+            }
+            public void onUnsubscrAll() {
+            }
+        }, false);
+
+        try {
+            assertTrue("feed not complete", full.await(30, TimeUnit.SECONDS));
+        } finally {
+            transport.unsubscribeTable(key);
+            transport.closeConnection();
+        }
+
+        QuoteUpdate[] feed = new QuoteUpdate[FEED_SIZE];
+        for (int i = 0; i < FEED_SIZE; i++) {
+            feed[i] = new QuoteUpdate(schema).wrap(updates[i]);
+        }
+        return feed;
+    }
+
+    private static class IdleConnectionListener implements ConnectionListener {
+        public void onConnectionEstablished() {
+        }
+        public void onSessionStarted(boolean isPolling) {
+        }
+        public void onNewBytes(long bytes) {
+        }
+        public void onDataError(PushServerException e) {
+        }
+        public void onActivityWarning(boolean warningOn) {
+        }
+        public void onClose() {
+        }
+        public void onEnd(int cause) {
+        }
+        public void onFailure(PushServerException e) {
+        }
+        public void onFailure(PushConnException e) {
+        }
+    }
+
+}